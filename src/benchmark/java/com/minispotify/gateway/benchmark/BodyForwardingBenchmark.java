@@ -0,0 +1,82 @@
+package com.minispotify.gateway.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bodies streamed through a running gateway: a POST whose body the stub upstream echoes back, and a GET
+ * on a route without caching or coalescing, for a few body sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(4)
+@Fork(1)
+public class BodyForwardingBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    public int bodyBytes;
+
+    private GatewayFixture gateway;
+    private WebClient client;
+    private byte[] body;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        gateway = new GatewayFixture(Duration.ZERO, bodyBytes);
+        client = WebClient.builder()
+                .baseUrl(gateway.url())
+                .defaultHeader(HttpHeaders.AUTHORIZATION, GatewayFixture.AUTHORIZATION)
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(-1))
+                .build();
+        body = new byte[bodyBytes];
+        Arrays.fill(body, (byte) 'x');
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        gateway.close();
+    }
+
+    @Benchmark
+    public int postEchoed() {
+        return client.post().uri("/songs")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .bodyValue(body)
+                .retrieve()
+                .bodyToMono(byte[].class)
+                .block()
+                .length;
+    }
+
+    @Benchmark
+    public int getStreamed() {
+        return client.get().uri("/users/1")
+                .retrieve()
+                .bodyToMono(byte[].class)
+                .block()
+                .length;
+    }
+}
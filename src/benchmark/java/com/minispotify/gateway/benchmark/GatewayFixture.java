@@ -0,0 +1,62 @@
+package com.minispotify.gateway.benchmark;
+
+import com.minispotify.gateway.GatewayApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A running gateway wired to {@link StubUpstreams} and an {@link InMemoryRedis} that knows
+ * {@link #TOKEN}. The redis stand-in listens on {@code benchmark.redis.port}, a free port by default.
+ */
+public class GatewayFixture implements Closeable {
+
+    public static final String TOKEN = "benchmark-token";
+    public static final String AUTHORIZATION = "Bearer " + TOKEN;
+
+    private final InMemoryRedis redis;
+    private final StubUpstreams upstreams;
+    private final ConfigurableApplicationContext context;
+
+    public GatewayFixture(Duration upstreamLatency, int payloadBytes) throws IOException {
+        // devtools would restart the application in a fresh classloader and start a second fixture
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        this.redis = new InMemoryRedis(Integer.getInteger("benchmark.redis.port", 0));
+        this.redis.set(TOKEN, "benchmark-user");
+        this.upstreams = new StubUpstreams(upstreamLatency, payloadBytes);
+
+        // passed as command line arguments so they win over application.yml
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("server.port", 0);
+        properties.put("spring.data.redis.port", redis.port());
+        properties.put("logging.level.root", "WARN");
+        // all load comes from a single token, which any sensible limit would mostly turn away
+        properties.put("gateway.rate-limit.enabled", false);
+        for (String service : new String[]{"artist", "song", "user", "playlist"}) {
+            properties.put(service + ".service.url", upstreams.url());
+        }
+        properties.put("authentication.service.url", upstreams.url() + "/authentication-service");
+
+        this.context = new SpringApplicationBuilder(GatewayApplication.class)
+                .run(properties.entrySet().stream()
+                        .map(property -> "--" + property.getKey() + "=" + property.getValue())
+                        .toArray(String[]::new));
+    }
+
+    public String url() {
+        return "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        context.close();
+        upstreams.close();
+        redis.close();
+    }
+}
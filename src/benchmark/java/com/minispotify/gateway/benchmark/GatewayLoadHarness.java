@@ -0,0 +1,160 @@
+package com.minispotify.gateway.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end load against a gateway running on {@link StubUpstreams} and {@link InMemoryRedis}. Every
+ * scenario is one route driven by a fixed number of concurrent clients, each sending its next request as
+ * soon as the previous one is answered, for a warmup period and then a measured period. Throughput,
+ * errors and p50/p99/p999 latency per scenario are printed and written to
+ * {@code benchmark.results} (target/benchmark/load.json by default), which {@link RegressionCheck} can
+ * compare against a previous run.
+ *
+ * <p>Tuned with system properties: {@code benchmark.concurrency} (64), {@code benchmark.warmup} (10s),
+ * {@code benchmark.duration} (30s), {@code benchmark.upstream-latency} (5ms) and
+ * {@code benchmark.payload-bytes} (2048) and {@code benchmark.routes}, a comma separated selection of
+ * scenarios (all by default). {@code gateway.*} system properties reach the gateway as usual. The
+ * harness runs in its own JVM under {@code mvn -Pbenchmark verify}, so properties given to maven reach it
+ * through {@code -Dload.args}.
+ */
+public class GatewayLoadHarness {
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+
+    private static final List<Scenario> SCENARIOS = List.of(
+            new Scenario("artists", HttpMethod.GET, "/artists"),
+            new Scenario("artist", HttpMethod.GET, "/artists/1"),
+            new Scenario("song", HttpMethod.GET, "/songs/1"),
+            new Scenario("songs-create", HttpMethod.POST, "/songs"),
+            new Scenario("user", HttpMethod.GET, "/users/1"),
+            new Scenario("user-playlists", HttpMethod.GET, "/users/1/playlists"),
+            new Scenario("library", HttpMethod.GET, "/users/1/library"),
+            new Scenario("songs-by-ids", HttpMethod.GET, "/songs?ids=1,2,3"));
+
+    public static void main(String[] args) throws IOException {
+        int concurrency = Integer.getInteger("benchmark.concurrency", 64);
+        Duration warmup = DurationStyle.detectAndParse(System.getProperty("benchmark.warmup", "10s"));
+        Duration duration = DurationStyle.detectAndParse(System.getProperty("benchmark.duration", "30s"));
+        Duration upstreamLatency = DurationStyle.detectAndParse(System.getProperty("benchmark.upstream-latency", "5ms"));
+        int payloadBytes = Integer.getInteger("benchmark.payload-bytes", 2048);
+        File results = new File(System.getProperty("benchmark.results", "target/benchmark/load.json"));
+
+        ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        ObjectNode report = objectMapper.createObjectNode();
+        report.put("concurrency", concurrency);
+        report.put("durationSeconds", duration.toSeconds());
+        ObjectNode routes = report.putObject("routes");
+
+        ConnectionProvider connections = ConnectionProvider.builder("load-harness").maxConnections(concurrency).build();
+        try (GatewayFixture gateway = new GatewayFixture(upstreamLatency, payloadBytes)) {
+            WebClient client = WebClient.builder()
+                    .baseUrl(gateway.url())
+                    .clientConnector(new ReactorClientHttpConnector(HttpClient.create(connections)))
+                    .defaultHeader(HttpHeaders.AUTHORIZATION, GatewayFixture.AUTHORIZATION)
+                    .build();
+            byte[] body = "{\"title\":\"benchmark\"}".getBytes();
+
+            System.out.printf("%-16s %12s %8s %10s %10s %10s%n", "route", "req/s", "errors", "p50 ms", "p99 ms", "p999 ms");
+            List<String> selected = List.of(System.getProperty("benchmark.routes", "").split(","));
+            for (Scenario scenario : SCENARIOS) {
+                if (!selected.equals(List.of("")) && !selected.contains(scenario.name())) {
+                    continue;
+                }
+                run(client, scenario, body, concurrency, warmup);
+                Result result = run(client, scenario, body, concurrency, duration);
+
+                Histogram latencies = result.latencies();
+                double throughput = latencies.getTotalCount() / (duration.toNanos() / 1e9);
+                System.out.printf("%-16s %12.0f %8d %10.2f %10.2f %10.2f%n", scenario.name(), throughput, result.errors(),
+                        millis(latencies, 50), millis(latencies, 99), millis(latencies, 99.9));
+                if (result.errors() > 0) {
+                    System.out.println("    errors by kind: " + result.errorsByKind());
+                }
+
+                ObjectNode route = routes.putObject(scenario.name());
+                route.put("throughput", throughput);
+                route.put("errors", result.errors());
+                route.put("p50", millis(latencies, 50));
+                route.put("p99", millis(latencies, 99));
+                route.put("p999", millis(latencies, 99.9));
+            }
+        } finally {
+            connections.dispose();
+        }
+
+        results.getParentFile().mkdirs();
+        objectMapper.writeValue(results, report);
+        System.out.println("Results written to " + results);
+    }
+
+    private static Result run(WebClient client, Scenario scenario, byte[] body, int concurrency, Duration duration) {
+        Recorder recorder = new Recorder(TimeUnit.MINUTES.toNanos(1), 3);
+        Map<String, AtomicLong> errors = new ConcurrentHashMap<>();
+        long deadline = System.nanoTime() + duration.toNanos();
+
+        Flux.range(0, concurrency)
+                .flatMap(worker -> Mono.defer(() -> {
+                            long start = System.nanoTime();
+                            return send(client, scenario, body)
+                                    .doOnNext(status -> {
+                                        recorder.recordValue(System.nanoTime() - start);
+                                        if (status >= 400) {
+                                            errors.computeIfAbsent("status " + status, kind -> new AtomicLong()).incrementAndGet();
+                                        }
+                                    })
+                                    .onErrorResume(e -> {
+                                        errors.computeIfAbsent(e.getClass().getSimpleName(), kind -> new AtomicLong()).incrementAndGet();
+                                        return Mono.empty();
+                                    });
+                        })
+                        .repeat(() -> System.nanoTime() < deadline), concurrency)
+                .blockLast();
+
+        return new Result(recorder.getIntervalHistogram(), errors);
+    }
+
+    private static Mono<Integer> send(WebClient client, Scenario scenario, byte[] body) {
+        WebClient.RequestBodySpec request = client.method(scenario.method()).uri(scenario.path());
+        if (scenario.method() != HttpMethod.GET) {
+            request.contentType(MediaType.APPLICATION_JSON).bodyValue(body);
+        }
+        return request.exchangeToMono(response -> response.releaseBody().thenReturn(response.statusCode().value()))
+                .timeout(REQUEST_TIMEOUT);
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1_000_000.0;
+    }
+
+    private record Scenario(String name, HttpMethod method, String path) {
+    }
+
+    private record Result(Histogram latencies, Map<String, AtomicLong> errorsByKind) {
+        long errors() {
+            return errorsByKind.values().stream().mapToLong(AtomicLong::get).sum();
+        }
+    }
+}
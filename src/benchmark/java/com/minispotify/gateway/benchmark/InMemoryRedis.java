@@ -0,0 +1,361 @@
+package com.minispotify.gateway.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * Just enough of a redis server, speaking RESP2 over loopback, to run the gateway without a real one:
+ * strings with expiry, sets, and publish/subscribe on channels and patterns. Keyspace notifications,
+ * persistence and everything else are left out. Values are kept as ISO-8859-1 strings so that any bytes
+ * a client stores come back unchanged.
+ */
+public class InMemoryRedis implements Closeable {
+
+    private final ServerSocket serverSocket;
+    private final Map<String, Entry> data = new ConcurrentHashMap<>();
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+
+    public InMemoryRedis(int port) throws IOException {
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.setReuseAddress(true);
+        this.serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 128);
+        Thread acceptor = new Thread(this::accept, "in-memory-redis");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    public void set(String key, String value) {
+        data.put(key, new Entry(value, Long.MAX_VALUE));
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Connection connection : connections) {
+            connection.socket.close();
+        }
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Connection connection = new Connection(serverSocket.accept());
+                connections.add(connection);
+                Thread thread = new Thread(connection::serve, "in-memory-redis-connection");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private Entry live(String key) {
+        Entry entry = data.get(key);
+        if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+            data.remove(key, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    private static final class Entry {
+        private final Object value;
+        private volatile long expiresAt;
+
+        private Entry(Object value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final class Connection {
+
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final Set<String> channels = ConcurrentHashMap.newKeySet();
+        private final Map<String, Pattern> patterns = new ConcurrentHashMap<>();
+
+        private Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.socket.setTcpNoDelay(true);
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        private void serve() {
+            try (socket) {
+                while (true) {
+                    List<String> command = readCommand();
+                    synchronized (out) {
+                        execute(command);
+                        // answer pipelined commands in one write
+                        if (in.available() == 0) {
+                            out.flush();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // client went away
+            } finally {
+                connections.remove(this);
+            }
+        }
+
+        private List<String> readCommand() throws IOException {
+            String header = readLine();
+            if (!header.startsWith("*")) {
+                return List.of(header.trim().split("\\s+"));
+            }
+            int count = Integer.parseInt(header.substring(1));
+            List<String> arguments = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int length = Integer.parseInt(readLine().substring(1));
+                byte[] bytes = in.readNBytes(length);
+                if (bytes.length < length) {
+                    throw new EOFException();
+                }
+                readLine();
+                arguments.add(new String(bytes, StandardCharsets.ISO_8859_1));
+            }
+            return arguments;
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) != '\r') {
+                if (c == -1) {
+                    throw new EOFException();
+                }
+                line.append((char) c);
+            }
+            in.read();
+            return line.toString();
+        }
+
+        private void execute(List<String> command) throws IOException {
+            String name = command.get(0).toUpperCase(Locale.ROOT);
+            List<String> args = command.subList(1, command.size());
+            switch (name) {
+                case "PING" -> simple("PONG");
+                case "AUTH", "SELECT", "CLIENT" -> simple("OK");
+                case "QUIT" -> {
+                    simple("OK");
+                    out.flush();
+                    socket.close();
+                }
+                case "GET" -> {
+                    Entry entry = live(args.get(0));
+                    bulk(entry != null && entry.value instanceof String value ? value : null);
+                }
+                case "MGET" -> {
+                    array(args.size());
+                    for (String key : args) {
+                        Entry entry = live(key);
+                        bulk(entry != null && entry.value instanceof String value ? value : null);
+                    }
+                }
+                case "SET" -> set(args);
+                case "INCR" -> {
+                    Entry entry = data.compute(args.get(0), (key, existing) -> new Entry(String.valueOf(
+                            existing != null && existing.expiresAt > System.currentTimeMillis() && existing.value instanceof String value
+                                    ? Long.parseLong(value) + 1
+                                    : 1), existing != null ? existing.expiresAt : Long.MAX_VALUE));
+                    integer(Long.parseLong((String) entry.value));
+                }
+                case "DEL" -> integer(args.stream().filter(key -> live(key) != null && data.remove(key) != null).count());
+                case "EXISTS" -> integer(args.stream().filter(key -> live(key) != null).count());
+                case "EXPIRE", "PEXPIRE" -> {
+                    Entry entry = live(args.get(0));
+                    if (entry != null) {
+                        long amount = Long.parseLong(args.get(1));
+                        entry.expiresAt = System.currentTimeMillis() + (name.equals("EXPIRE") ? amount * 1000 : amount);
+                    }
+                    integer(entry != null ? 1 : 0);
+                }
+                case "SADD" -> sadd(args);
+                case "SMEMBERS" -> {
+                    Entry entry = live(args.get(0));
+                    Collection<?> members = entry != null && entry.value instanceof Set<?> set ? set : Set.of();
+                    array(members.size());
+                    for (Object member : members) {
+                        bulk((String) member);
+                    }
+                }
+                case "PUBLISH" -> integer(publish(args.get(0), args.get(1)));
+                case "SUBSCRIBE" -> {
+                    for (String channel : args) {
+                        channels.add(channel);
+                        subscription("subscribe", channel);
+                    }
+                }
+                case "PSUBSCRIBE" -> {
+                    for (String pattern : args) {
+                        patterns.put(pattern, glob(pattern));
+                        subscription("psubscribe", pattern);
+                    }
+                }
+                case "UNSUBSCRIBE" -> {
+                    for (String channel : args.isEmpty() ? List.copyOf(channels) : args) {
+                        channels.remove(channel);
+                        subscription("unsubscribe", channel);
+                    }
+                }
+                case "PUNSUBSCRIBE" -> {
+                    for (String pattern : args.isEmpty() ? List.copyOf(patterns.keySet()) : args) {
+                        patterns.remove(pattern);
+                        subscription("punsubscribe", pattern);
+                    }
+                }
+                default -> error("ERR unknown command '" + command.get(0) + "'");
+            }
+        }
+
+        private void set(List<String> args) throws IOException {
+            long expiresAt = Long.MAX_VALUE;
+            boolean onlyIfAbsent = false;
+            boolean onlyIfPresent = false;
+            for (int i = 2; i < args.size(); i++) {
+                switch (args.get(i).toUpperCase(Locale.ROOT)) {
+                    case "EX" -> expiresAt = System.currentTimeMillis() + Long.parseLong(args.get(++i)) * 1000;
+                    case "PX" -> expiresAt = System.currentTimeMillis() + Long.parseLong(args.get(++i));
+                    case "NX" -> onlyIfAbsent = true;
+                    case "XX" -> onlyIfPresent = true;
+                    default -> {
+                    }
+                }
+            }
+            boolean exists = live(args.get(0)) != null;
+            if ((onlyIfAbsent && exists) || (onlyIfPresent && !exists)) {
+                bulk(null);
+                return;
+            }
+            data.put(args.get(0), new Entry(args.get(1), expiresAt));
+            simple("OK");
+        }
+
+        @SuppressWarnings("unchecked")
+        private void sadd(List<String> args) throws IOException {
+            Entry entry = data.compute(args.get(0), (key, existing) ->
+                    existing != null && existing.value instanceof Set<?> && existing.expiresAt > System.currentTimeMillis()
+                            ? existing
+                            : new Entry(ConcurrentHashMap.newKeySet(), Long.MAX_VALUE));
+            Set<String> members = (Set<String>) entry.value;
+            integer(args.subList(1, args.size()).stream().filter(members::add).count());
+        }
+
+        private void subscription(String kind, String name) throws IOException {
+            array(3);
+            bulk(kind);
+            bulk(name);
+            integer(channels.size() + patterns.size());
+        }
+
+        private void deliver(String channel, String message) {
+            try {
+                synchronized (out) {
+                    if (channels.contains(channel)) {
+                        array(3);
+                        bulk("message");
+                        bulk(channel);
+                        bulk(message);
+                    }
+                    for (Map.Entry<String, Pattern> pattern : patterns.entrySet()) {
+                        if (pattern.getValue().matcher(channel).matches()) {
+                            array(4);
+                            bulk("pmessage");
+                            bulk(pattern.getKey());
+                            bulk(channel);
+                            bulk(message);
+                        }
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // subscriber went away, its own thread cleans up
+            }
+        }
+
+        private boolean receives(String channel) {
+            return channels.contains(channel)
+                    || patterns.values().stream().anyMatch(pattern -> pattern.matcher(channel).matches());
+        }
+
+        private void simple(String value) throws IOException {
+            write("+" + value + "\r\n");
+        }
+
+        private void error(String message) throws IOException {
+            write("-" + message + "\r\n");
+        }
+
+        private void integer(long value) throws IOException {
+            write(":" + value + "\r\n");
+        }
+
+        private void array(int size) throws IOException {
+            write("*" + size + "\r\n");
+        }
+
+        private void bulk(String value) throws IOException {
+            if (value == null) {
+                write("$-1\r\n");
+                return;
+            }
+            write("$" + value.length() + "\r\n" + value + "\r\n");
+        }
+
+        private void write(String value) throws IOException {
+            out.write(value.getBytes(StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    private long publish(String channel, String message) {
+        long receivers = 0;
+        for (Connection connection : connections) {
+            if (connection.receives(channel)) {
+                connection.deliver(channel, message);
+                receivers++;
+            }
+        }
+        return receivers;
+    }
+
+    private static Pattern glob(String pattern) {
+        StringBuilder regex = new StringBuilder();
+        for (char c : pattern.toCharArray()) {
+            switch (c) {
+                case '*' -> regex.append(".*");
+                case '?' -> regex.append('.');
+                case '[', ']' -> regex.append(c);
+                default -> regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+}
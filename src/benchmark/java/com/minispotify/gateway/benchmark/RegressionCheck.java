@@ -0,0 +1,102 @@
+package com.minispotify.gateway.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares a benchmark run with a baseline run and fails when anything got worse by more than the
+ * tolerance, in percent. Understands the JSON JMH writes with {@code -rf json} and the report of
+ * {@link GatewayLoadHarness}; without a baseline file there is nothing to compare and the check passes.
+ *
+ * <pre>RegressionCheck (jmh|load) baseline.json current.json [tolerance-percent, default 10]</pre>
+ */
+public class RegressionCheck {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("usage: RegressionCheck (jmh|load) baseline.json current.json [tolerance-percent]");
+            System.exit(2);
+        }
+        File baselineFile = new File(args[1]);
+        if (!baselineFile.isFile()) {
+            System.out.println("No baseline at " + baselineFile + ", nothing to compare against");
+            return;
+        }
+        double tolerance = args.length > 3 ? Double.parseDouble(args[3]) / 100 : 0.10;
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        JsonNode baseline = objectMapper.readTree(baselineFile);
+        JsonNode current = objectMapper.readTree(new File(args[2]));
+        List<String> regressions = switch (args[0]) {
+            case "jmh" -> compareJmh(baseline, current, tolerance);
+            case "load" -> compareLoad(baseline, current, tolerance);
+            default -> throw new IllegalArgumentException("Unknown result kind " + args[0]);
+        };
+
+        if (regressions.isEmpty()) {
+            System.out.printf("No %s regressions beyond %.0f%%%n", args[0], tolerance * 100);
+            return;
+        }
+        regressions.forEach(regression -> System.out.println("REGRESSION " + regression));
+        System.exit(1);
+    }
+
+    private static List<String> compareJmh(JsonNode baseline, JsonNode current, double tolerance) {
+        List<String> regressions = new ArrayList<>();
+        for (JsonNode run : current) {
+            String key = jmhKey(run);
+            for (JsonNode baselineRun : baseline) {
+                if (!jmhKey(baselineRun).equals(key)) {
+                    continue;
+                }
+                // throughput modes are better when higher, time modes when lower
+                boolean higherIsBetter = run.path("mode").asText().equals("thrpt");
+                check(regressions, key, baselineRun.path("primaryMetric").path("score").asDouble(),
+                        run.path("primaryMetric").path("score").asDouble(), higherIsBetter, tolerance);
+            }
+        }
+        return regressions;
+    }
+
+    private static List<String> compareLoad(JsonNode baseline, JsonNode current, double tolerance) {
+        List<String> regressions = new ArrayList<>();
+        current.path("routes").fields().forEachRemaining(route -> {
+            JsonNode baselineRoute = baseline.path("routes").path(route.getKey());
+            if (baselineRoute.isMissingNode()) {
+                return;
+            }
+            check(regressions, route.getKey() + " throughput", baselineRoute.path("throughput").asDouble(),
+                    route.getValue().path("throughput").asDouble(), true, tolerance);
+            for (String percentile : new String[]{"p50", "p99", "p999"}) {
+                check(regressions, route.getKey() + " " + percentile, baselineRoute.path(percentile).asDouble(),
+                        route.getValue().path(percentile).asDouble(), false, tolerance);
+            }
+            if (route.getValue().path("errors").asLong() > baselineRoute.path("errors").asLong()) {
+                regressions.add(route.getKey() + " errors: " + baselineRoute.path("errors").asLong()
+                        + " -> " + route.getValue().path("errors").asLong());
+            }
+        });
+        return regressions;
+    }
+
+    private static void check(List<String> regressions, String name, double baseline, double current,
+                              boolean higherIsBetter, double tolerance) {
+        if (baseline <= 0) {
+            return;
+        }
+        double change = (current - baseline) / baseline;
+        boolean worse = higherIsBetter ? change < -tolerance : change > tolerance;
+        if (worse) {
+            regressions.add(String.format("%s: %.3f -> %.3f (%+.1f%%)", name, baseline, current, change * 100));
+        }
+    }
+
+    private static String jmhKey(JsonNode run) {
+        return run.path("benchmark").asText() + run.path("params").toString();
+    }
+}
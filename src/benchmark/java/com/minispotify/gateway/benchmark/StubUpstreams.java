@@ -0,0 +1,57 @@
+package com.minispotify.gateway.benchmark;
+
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * One local HTTP server standing in for every upstream service. GETs are answered with a JSON document of
+ * a fixed size after a fixed delay, anything with a body gets it echoed back.
+ */
+public class StubUpstreams implements Closeable {
+
+    private final DisposableServer server;
+
+    public StubUpstreams(Duration latency, int payloadBytes) {
+        byte[] payload = payload(payloadBytes);
+        this.server = HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .handle((request, response) -> {
+                    response.header("Content-Type", "application/json");
+                    if (request.method().name().equals("GET")) {
+                        Mono<byte[]> body = Mono.just(payload);
+                        return response.sendByteArray(latency.isZero() ? body : body.delayElement(latency));
+                    }
+                    return response.send(request.receive().retain());
+                })
+                .bindNow();
+    }
+
+    public String url() {
+        return "http://localhost:" + server.port();
+    }
+
+    @Override
+    public void close() {
+        server.disposeNow();
+    }
+
+    // a JSON array of ids, padded out to the requested size with whitespace
+    private static byte[] payload(int size) {
+        String ids = "[\"1\",\"2\",\"3\"";
+        if (size < ids.length() + 1) {
+            return "[]".getBytes(StandardCharsets.UTF_8);
+        }
+        byte[] payload = new byte[size];
+        Arrays.fill(payload, (byte) ' ');
+        System.arraycopy(ids.getBytes(StandardCharsets.UTF_8), 0, payload, 0, ids.length());
+        payload[size - 1] = ']';
+        return payload;
+    }
+}
@@ -0,0 +1,114 @@
+package com.minispotify.gateway.benchmark;
+
+import com.minispotify.gateway.config.AuthProperties;
+import com.minispotify.gateway.config.TokenCacheProperties;
+import com.minispotify.gateway.services.JwtTokenVerifier;
+import com.minispotify.gateway.services.RedisSubscriptions;
+import com.minispotify.gateway.services.TokenVerificationService;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifying a bearer token from the local token cache, from redis (the in-memory stand-in over loopback)
+ * with the cache turned off, and as a signed JWT validated in-process.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenVerificationBenchmark {
+
+    private static final String JWT_SECRET = "benchmark-secret-of-at-least-32-bytes";
+
+    private InMemoryRedis redis;
+    private LettuceConnectionFactory connectionFactory;
+    private TokenVerificationService cached;
+    private TokenVerificationService uncached;
+    private TokenVerificationService jwt;
+    private String jwtAuthorization;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, JOSEException {
+        redis = new InMemoryRedis(0);
+        redis.set(GatewayFixture.TOKEN, "benchmark-user");
+        connectionFactory = new LettuceConnectionFactory("localhost", redis.port());
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+
+        cached = service(true, new AuthProperties());
+        uncached = service(false, new AuthProperties());
+
+        AuthProperties jwtMode = new AuthProperties();
+        jwtMode.setMode(AuthProperties.Mode.JWT);
+        jwtMode.getJwt().setSecret(JWT_SECRET);
+        jwt = service(true, jwtMode);
+        SignedJWT token = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), new JWTClaimsSet.Builder()
+                .subject("benchmark-user")
+                .jwtID("benchmark")
+                .expirationTime(Date.from(Instant.now().plusSeconds(3600)))
+                .build());
+        token.sign(new MACSigner(JWT_SECRET));
+        jwtAuthorization = "Bearer " + token.serialize();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        connectionFactory.destroy();
+        redis.close();
+    }
+
+    @Benchmark
+    public Optional<String> cachedToken() {
+        return cached.verify(GatewayFixture.AUTHORIZATION).block();
+    }
+
+    @Benchmark
+    public Optional<String> redisLookup() {
+        return uncached.verify(GatewayFixture.AUTHORIZATION).block();
+    }
+
+    @Benchmark
+    public Optional<String> localJwt() {
+        return jwt.verify(jwtAuthorization).block();
+    }
+
+    private TokenVerificationService service(boolean cacheEnabled, AuthProperties authProperties) {
+        TokenCacheProperties properties = new TokenCacheProperties();
+        properties.setEnabled(cacheEnabled);
+        ReactiveStringRedisTemplate redisTemplate = new ReactiveStringRedisTemplate(connectionFactory);
+        RedisSubscriptions redisSubscriptions = new RedisSubscriptions(connectionFactory);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        JwtTokenVerifier jwtTokenVerifier = new JwtTokenVerifier(authProperties, redisTemplate, redisSubscriptions,
+                WebClient.builder(), meterRegistry);
+        return new TokenVerificationService(redisTemplate, properties, redisSubscriptions, authProperties,
+                jwtTokenVerifier, meterRegistry);
+    }
+}
@@ -0,0 +1,87 @@
+package com.minispotify.gateway.benchmark;
+
+import com.minispotify.gateway.config.RouteProperties;
+import com.minispotify.gateway.config.UpstreamProperties;
+import com.minispotify.gateway.services.RouteForwarder;
+import com.minispotify.gateway.services.RouteTable;
+import com.minispotify.gateway.services.UpstreamClients;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.server.PathContainer;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning a client request path into the upstream URI: matching it against the route table from
+ * application.yml, expanding the rewrite template and appending the query with
+ * {@link RouteForwarder#upstreamUri}, the same steps RouteForwarder takes for every request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UpstreamUriBenchmark {
+
+    @Param({"/songs", "/artists/42", "/users/7/playlists/3/songs"})
+    public String path;
+
+    private UpstreamClients upstreamClients;
+    private RouteTable routeTable;
+    private PathContainer pathContainer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Binder binder = new Binder(ConfigurationPropertySources.from(
+                new YamlPropertySourceLoader().load("application", new ClassPathResource("application.yml"))));
+        RouteProperties routeProperties = binder.bind("gateway", RouteProperties.class).get();
+
+        UpstreamProperties upstreamProperties = new UpstreamProperties();
+        routeProperties.getRoutes().forEach(route -> {
+            UpstreamProperties.Upstream upstream = new UpstreamProperties.Upstream();
+            upstream.setUrl("http://localhost:8080");
+            upstreamProperties.getUpstreams().put(route.getUpstream(), upstream);
+        });
+        upstreamClients = new UpstreamClients(WebClient.builder(), upstreamProperties, new SimpleMeterRegistry());
+        routeTable = new RouteTable(routeProperties, upstreamClients);
+        pathContainer = PathContainer.parsePath(path);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        upstreamClients.dispose();
+    }
+
+    @Benchmark
+    public URI matchAndBuildUri() {
+        RouteTable.RouteMatch match = routeTable.match(HttpMethod.GET, pathContainer).orElseThrow();
+        return RouteForwarder.upstreamUri(upstreamClients.balancer(match.route().upstream()).choose(null),
+                match.upstreamPath(), "limit=20&offset=40");
+    }
+
+    @Benchmark
+    public PathContainer parsePath() {
+        return PathContainer.parsePath(path);
+    }
+}
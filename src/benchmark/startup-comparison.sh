@@ -0,0 +1,73 @@
+#!/usr/bin/env bash
+#
+# Startup time and memory of the gateway images: the plain jar (Dockerfile), the AOT jar on a CDS
+# archive (Dockerfile.aot) and the native executable (Dockerfile.native). Run from the project root:
+#
+#   bash src/benchmark/startup-comparison.sh [runs]
+#
+# Each image is started `runs` times (default 5). Startup is the time from `docker run` until the
+# gateway answers on /actuator/health, whatever its status: redis does not have to be reachable for
+# the gateway to be up. RSS is the gateway process's resident memory at that point. Per-run numbers
+# go to target/benchmark/startup.csv, the medians are printed. SKIP_BUILD=1 reuses images built
+# before, IMAGES limits the run to some of jvm, aot-cds and native, DOCKER_RUN_ARGS is passed to
+# docker run (e.g. "--network host -e SPRING_DATA_REDIS_HOST=...").
+set -euo pipefail
+
+runs=${1:-5}
+images=${IMAGES:-"jvm aot-cds native"}
+port=${PORT:-18080}
+out=target/benchmark/startup.csv
+
+build() {
+    case $1 in
+        jvm) mvn -B -q -DskipTests package && docker build -q -t gateway:jvm -f Dockerfile . ;;
+        aot-cds) mvn -B -q -Paot -DskipTests package && docker build -q -t gateway:aot-cds -f Dockerfile.aot . ;;
+        native) docker build -q -t gateway:native -f Dockerfile.native . ;;
+    esac
+}
+
+now_ms() {
+    date +%s%3N
+}
+
+# prints "<startup ms> <rss kB>" for one start of the image
+measure() {
+    local started container rss
+    started=$(now_ms)
+    # shellcheck disable=SC2086
+    container=$(docker run -d -p "$port:8080" ${DOCKER_RUN_ARGS:-} "gateway:$1")
+    until curl -s -o /dev/null "http://localhost:$port/actuator/health"; do
+        if [ "$(docker inspect -f '{{.State.Running}}' "$container")" != true ]; then
+            docker logs "$container" >&2
+            docker rm -f "$container" > /dev/null
+            echo "gateway:$1 exited before answering" >&2
+            exit 1
+        fi
+        sleep 0.05
+    done
+    echo -n "$(( $(now_ms) - started )) "
+    rss=$(docker exec "$container" cat /proc/1/status | awk '/^VmRSS/ { print $2 }')
+    echo "$rss"
+    docker rm -f "$container" > /dev/null
+}
+
+median() {
+    sort -n | awk '{ values[NR] = $1 } END { print (NR % 2 ? values[(NR + 1) / 2] : (values[NR / 2] + values[NR / 2 + 1]) / 2) }'
+}
+
+mkdir -p "$(dirname "$out")"
+echo "image,run,startup_ms,rss_kb" > "$out"
+printf '%-10s %14s %12s\n' image startup_ms rss_mb
+for image in $images; do
+    if [ -z "${SKIP_BUILD:-}" ]; then
+        build "$image" > /dev/null
+    fi
+    for run in $(seq 1 "$runs"); do
+        result=$(measure "$image")
+        read -r startup rss <<< "$result"
+        echo "$image,$run,$startup,$rss" >> "$out"
+    done
+    startup=$(grep "^$image," "$out" | cut -d, -f3 | median)
+    rss=$(grep "^$image," "$out" | cut -d, -f4 | median)
+    printf '%-10s %14s %12s\n' "$image" "$startup" "$(( ${rss%.*} / 1024 ))"
+done
@@ -1,14 +1,19 @@
 package com.minispotify.gateway.config;
 
+import com.minispotify.gateway.services.UpstreamClients;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.context.annotation.ImportRuntimeHints;
+import org.springframework.web.reactive.function.client.WebClient;
 
 @Configuration
+@ImportRuntimeHints(GatewayRuntimeHints.class)
 public class AppConfig {
 
-    @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    @Bean(destroyMethod = "dispose")
+    public UpstreamClients upstreamClients(WebClient.Builder builder, UpstreamProperties upstreamProperties,
+                                           MeterRegistry meterRegistry) {
+        return new UpstreamClients(builder, upstreamProperties, meterRegistry);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,38 @@
+package com.minispotify.gateway.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "gateway.async-writes")
+public class AsyncWriteProperties {
+    // writes to routes with async-writes set are queued and answered with 202 only while this is on
+    private boolean enabled = false;
+    // one redis stream per partition, <prefix><partition>; a principal's writes always land in the same one
+    private String streamPrefix = "gateway:mutations:";
+    private int partitions = 8;
+    private String group = "gateway";
+    // a partition is drained by one replica at a time, which keeps each principal's writes in order; renewed
+    // every third of it while a batch is applied
+    private Duration partitionLease = Duration.ofSeconds(10);
+    // how often an idle partition is checked for new writes; a full batch is followed by the next one right away
+    private Duration pollInterval = Duration.ofMillis(250);
+    private int batchSize = 64;
+    // principals whose writes are applied concurrently within a batch
+    private int concurrency = 8;
+    // attempts per write, including the first, before it is moved to the dead letter stream
+    private int maxAttempts = 5;
+    private Duration retryBackoff = Duration.ofMillis(200);
+    private Duration maxRetryBackoff = Duration.ofSeconds(10);
+    // writes with a larger body are refused with 413, forwarding them could overtake the writes still queued
+    private DataSize maxBodySize = DataSize.ofKilobytes(64);
+    // writes the upstream refused or that ran out of attempts, kept for inspection
+    private String deadLetterStream = "gateway:mutations:dead";
+    // the dead letter stream is trimmed to about this many entries, the oldest go first
+    private long deadLetterMaxLength = 10_000;
+    // how often queue depth and lag are read for the metrics
+    private Duration metricsInterval = Duration.ofSeconds(10);
+}
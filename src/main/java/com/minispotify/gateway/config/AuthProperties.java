@@ -0,0 +1,45 @@
+package com.minispotify.gateway.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "gateway.auth")
+public class AuthProperties {
+    // REDIS looks bearer tokens up in redis, JWT validates them in-process as tokens signed by the authentication service
+    private Mode mode = Mode.REDIS;
+    private Jwt jwt = new Jwt();
+
+    public enum Mode {
+        REDIS,
+        JWT
+    }
+
+    @Data
+    public static class Jwt {
+        // JWK set of the authentication service (RS* and ES* keys), fetched in the background and never during a request
+        private String jwksUri;
+        // new signing keys have to be published in the set at least this long before tokens are signed with them
+        private Duration jwksRefreshInterval = Duration.ofMinutes(5);
+        // a token signed with a key missing from the set refreshes it early, at most this often
+        private Duration jwksMinRefreshInterval = Duration.ofSeconds(10);
+        // shared secret for HS256/384/512 tokens, at least 32 bytes; used instead of the JWK set when set
+        private String secret;
+        // checked against iss and aud when set
+        private String issuer;
+        private String audience;
+        // claim handed on as the principal, the counterpart of the value stored in redis in REDIS mode
+        private String principalClaim = "sub";
+        private Duration clockSkew = Duration.ofSeconds(30);
+        // sorted set of revoked token ids (jti) scored by the token's expiry in epoch seconds
+        private String revokedKey = "gateway:revoked-jtis";
+        // the authentication service publishes "<jti> <expiry in epoch seconds>" here after adding it to the revoked set
+        private String revocationChannel = "gateway:jti-revocations";
+        // how long a jti published without its token's expiry is remembered at most, the longest a token lives
+        private Duration maxTokenLifetime = Duration.ofHours(24);
+        // full re-read of the revoked set, picks up whatever was published while the subscription was down
+        private Duration revocationSyncInterval = Duration.ofMinutes(1);
+    }
+}
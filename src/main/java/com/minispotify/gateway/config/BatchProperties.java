@@ -0,0 +1,13 @@
+package com.minispotify.gateway.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "gateway.batch")
+public class BatchProperties {
+    // ids or envelope entries accepted in one batch
+    private int maxItems = 200;
+    // upstream lookups of one batch allowed in flight at once
+    private int concurrency = 16;
+}
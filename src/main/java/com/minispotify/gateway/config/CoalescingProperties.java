@@ -0,0 +1,13 @@
+package com.minispotify.gateway.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "gateway.coalescing")
+public class CoalescingProperties {
+    // how long a request that joined someone else's in-flight upstream call waits before giving up with 504
+    private Duration maxWait = Duration.ofSeconds(5);
+}
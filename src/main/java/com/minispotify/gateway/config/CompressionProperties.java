@@ -0,0 +1,28 @@
+package com.minispotify.gateway.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@ConfigurationProperties(prefix = "gateway.compression")
+public class CompressionProperties {
+    private boolean enabled = true;
+    // smaller responses are sent as they are, the gzip framing would eat most of the gain
+    private DataSize minResponseSize = DataSize.ofKilobytes(1);
+    private List<String> mimeTypes = new ArrayList<>(List.of(
+            "application/json", "application/*+json", "application/javascript", "application/xml", "text/*", "image/svg+xml"));
+    // deflate level, 1 (fastest) to 9 (smallest)
+    private int level = 5;
+    // deflaters and inflaters kept for reuse, each holds a few hundred KB of native memory
+    private int poolSize = 32;
+    // ask upstreams for gzip on buffered reads and inflate it here, trading gateway CPU for upstream bandwidth
+    private boolean upstreamGzip = true;
+    // an inflated upstream body larger than this is refused
+    private DataSize maxInflatedSize = DataSize.ofMegabytes(16);
+    // gzipped variants of cached responses, so a cached body is compressed once and not on every hit
+    private DataSize variantCacheSize = DataSize.ofMegabytes(32);
+}
@@ -0,0 +1,23 @@
+package com.minispotify.gateway.config;
+
+import com.minispotify.gateway.requests.BatchRequest;
+import com.minispotify.gateway.services.CachedResponse;
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+
+/**
+ * What the native image needs beyond what Spring's AOT processing infers: the lua scripts loaded from
+ * the class path and the types jackson binds outside of controller signatures, like cache entries read
+ * back from redis. Lettuce, netty and caffeine bring their own metadata or get it from the GraalVM
+ * reachability metadata repository.
+ */
+public class GatewayRuntimeHints implements RuntimeHintsRegistrar {
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        hints.resources().registerPattern("scripts/*.lua");
+        new BindingReflectionHintsRegistrar().registerReflectionHints(hints.reflection(),
+                CachedResponse.class, BatchRequest.class);
+    }
+}
@@ -0,0 +1,17 @@
+package com.minispotify.gateway.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "gateway.library")
+public class LibraryProperties {
+    // budget for each of the three user-service lists; a list that misses it is reported in errors
+    private Duration partTimeout = Duration.ofSeconds(2);
+    // budget for looking up all referenced songs or artists of one list
+    private Duration hydrationTimeout = Duration.ofSeconds(2);
+    // song or artist lookups allowed in flight at once for one library request
+    private int hydrationConcurrency = 16;
+}
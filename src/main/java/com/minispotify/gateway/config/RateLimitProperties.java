@@ -0,0 +1,36 @@
+package com.minispotify.gateway.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+@Data
+@ConfigurationProperties(prefix = "gateway.rate-limit")
+public class RateLimitProperties {
+    private boolean enabled = true;
+    // applies to every route without a rate-limit of its own, per principal (client address on unauthenticated routes)
+    private Limit defaultLimit = new Limit();
+    // limits of the gateway's own endpoints, "batch" and "library", each request charged once however many
+    // reads it fans out to; default-limit when missing
+    private Map<String, Limit> endpoints = new HashMap<>();
+    // tokens taken from redis at once and then handed out locally, trading a little fairness for fewer round trips
+    private int batchSize = 10;
+    // how long tokens taken from redis may be handed out locally before they are dropped
+    private Duration lease = Duration.ofSeconds(1);
+    // a request waits no longer than this for redis before it is let through
+    private Duration redisTimeout = Duration.ofMillis(100);
+    private String keyPrefix = "gateway:rate-limit:";
+    // local token allowances kept, one per principal and route
+    private long maximumSize = 100_000;
+
+    @Data
+    public static class Limit {
+        // burst size, 0 turns limiting off
+        private int capacity = 100;
+        // above 0 whenever capacity is
+        private double refillPerSecond = 50;
+    }
+}
@@ -0,0 +1,17 @@
+package com.minispotify.gateway.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "gateway.redis")
+public class RedisClientProperties {
+    // lettuce ReadFrom name (replicaPreferred, nearest, ...) for reads on a sentinel, cluster or master/replica setup;
+    // replicas lag behind, so a token looked up right after login may not be there yet. Unset reads from the primary.
+    private String readFrom;
+    // lettuce's netty event loop and computation threads, 0 keeps lettuce's default of one per core
+    private int ioThreads;
+    private int computationThreads;
+    // fail commands right away while disconnected instead of queueing them until the connection is back
+    private boolean rejectWhenDisconnected = true;
+}
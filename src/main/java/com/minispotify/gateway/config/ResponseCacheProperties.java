@@ -0,0 +1,21 @@
+package com.minispotify.gateway.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "gateway.response-cache")
+public class ResponseCacheProperties {
+    private boolean enabled = true;
+    private long localMaximumSize = 10_000;
+    // responses larger than this are passed through without being cached
+    private DataSize maxEntrySize = DataSize.ofMegabytes(5);
+    // how long an entry is kept after it went stale so it can be revalidated with If-None-Match instead of refetched
+    private Duration staleRetention = Duration.ofMinutes(10);
+    private String keyPrefix = "gateway:response-cache:";
+    // replicas publish a cache region here when a write through them invalidated it
+    private String invalidationChannel = "gateway:response-cache-invalidations";
+}
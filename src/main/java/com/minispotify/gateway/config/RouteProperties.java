@@ -0,0 +1,50 @@
+package com.minispotify.gateway.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.http.HttpMethod;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@ConfigurationProperties(prefix = "gateway")
+public class RouteProperties {
+    private List<Route> routes = new ArrayList<>();
+
+    @Data
+    public static class Route {
+        private String id;
+        private List<HttpMethod> methods = new ArrayList<>();
+        // spring path pattern matched against the incoming request, e.g. /artists/{artistId}
+        private String path;
+        // name of an entry in gateway.upstreams
+        private String upstream;
+        // upstream path template using the variables captured by path, defaults to path itself
+        private String rewrite;
+        private boolean authenticated = true;
+        // GETs are served from the response cache when a ttl is set; writes to any route of the same region invalidate it
+        private Cache cache;
+        // whether concurrent identical GETs share a single upstream request
+        private Coalescing coalesce = Coalescing.NONE;
+        // replaces gateway.rate-limit.default-limit for this route
+        private RateLimitProperties.Limit rateLimit;
+        // writes are queued and applied in the background, the client gets a 202; only for idempotent writes
+        private boolean asyncWrites;
+    }
+
+    public enum Coalescing {
+        NONE,
+        // only requests authenticated as the same principal share a response
+        PRINCIPAL,
+        // everyone shares, for routes whose response does not depend on the caller
+        SHARED
+    }
+
+    @Data
+    public static class Cache {
+        private Duration ttl;
+        private String region;
+    }
+}
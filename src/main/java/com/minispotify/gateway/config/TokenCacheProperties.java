@@ -0,0 +1,26 @@
+package com.minispotify.gateway.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "gateway.token-cache")
+public class TokenCacheProperties {
+    private boolean enabled = true;
+    private long maximumSize = 100_000;
+    // how long a token that was found in redis is trusted without asking again
+    private Duration positiveTtl = Duration.ofSeconds(30);
+    // unknown tokens are cached briefly so a client retrying a bad token doesn't hit redis every time
+    private Duration negativeTtl = Duration.ofSeconds(2);
+    // concurrent lookups are sent to redis as MGETs of up to this many tokens, with at most lookup-concurrency in flight
+    private int lookupBatchSize = 128;
+    private int lookupConcurrency = 4;
+    // channel the authentication service publishes a token on when it is revoked (logout)
+    private String revocationChannel = "gateway:token-revocations";
+    // prefix the authentication service stores tokens under, looked up as prefix + token. When set, keyspace
+    // notifications for these keys only (notify-keyspace-events with at least "Kg$xe" on the server) drop
+    // deleted, expired and overwritten tokens; without a prefix only the revocation channel and ttl do
+    private String keyPrefix = "";
+}
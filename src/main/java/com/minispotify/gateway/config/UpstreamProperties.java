@@ -0,0 +1,103 @@
+package com.minispotify.gateway.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Data
+@ConfigurationProperties(prefix = "gateway")
+public class UpstreamProperties {
+    // keyed by upstream name (artist, song, playlist, user, authentication)
+    private Map<String, Upstream> upstreams = new LinkedHashMap<>();
+
+    @Data
+    public static class Upstream {
+        private String url;
+        // instances of the upstream to balance over, replaces url when set
+        private List<String> urls = new ArrayList<>();
+        // per instance, the pool keeps separate connections for every address
+        private Pool pool = new Pool();
+        private Duration connectTimeout = Duration.ofSeconds(2);
+        // longest allowed gap between two reads of a response
+        private Duration readTimeout = Duration.ofSeconds(10);
+        private CircuitBreaker circuitBreaker = new CircuitBreaker();
+        private Bulkhead bulkhead = new Bulkhead();
+        private ConcurrencyLimit concurrencyLimit = new ConcurrencyLimit();
+        private Balancing balancing = new Balancing();
+        private Hedging hedging = new Hedging();
+    }
+
+    @Data
+    public static class Pool {
+        private int maxConnections = 200;
+        // requests allowed to queue for a connection once the pool is exhausted, -1 for no limit
+        private int pendingAcquireMaxCount = 1000;
+        private Duration pendingAcquireTimeout = Duration.ofSeconds(5);
+        private boolean keepAlive = true;
+        private Duration maxIdleTime = Duration.ofSeconds(30);
+        private Duration maxLifeTime = Duration.ofMinutes(5);
+        // how often idle and expired connections are closed in the background, zero to only check on acquire
+        private Duration evictionInterval = Duration.ofSeconds(15);
+    }
+
+    @Data
+    public static class CircuitBreaker {
+        private boolean enabled = true;
+        // percentage of failed (error or 5xx) calls in the window that opens the breaker
+        private float failureRateThreshold = 50;
+        private float slowCallRateThreshold = 80;
+        private Duration slowCallDurationThreshold = Duration.ofSeconds(3);
+        // number of most recent calls the rates are computed over
+        private int slidingWindowSize = 50;
+        private int minimumNumberOfCalls = 20;
+        private Duration waitDurationInOpenState = Duration.ofSeconds(10);
+        private int permittedNumberOfCallsInHalfOpenState = 5;
+    }
+
+    @Data
+    public static class Bulkhead {
+        // hard cap on calls in flight to the upstream, beyond it calls are rejected right away
+        private int maxConcurrentCalls = 200;
+    }
+
+    @Data
+    public static class ConcurrencyLimit {
+        private boolean enabled = true;
+        private int initialLimit = 50;
+        private int minLimit = 10;
+        private int maxLimit = 200;
+        // calls judged together, the limit moves at most once per window
+        private int windowSize = 20;
+        // multiplied into the limit once for a window with a failure or too slow a median
+        private double backoffRatio = 0.9;
+        // a window is too slow once its median takes this many times the upstream's long-term latency
+        private double latencyTolerance = 2.0;
+    }
+
+    @Data
+    public static class Balancing {
+        // how quickly an instance's latency estimate forgets older calls
+        private Duration decayTime = Duration.ofSeconds(10);
+        // failed calls (error or 5xx) in a row that take an instance out of rotation
+        private int consecutiveFailures = 5;
+        private Duration ejectionTime = Duration.ofSeconds(30);
+        // share of the instances that may be ejected at the same time
+        private int maxEjectionPercent = 50;
+    }
+
+    @Data
+    public static class Hedging {
+        // GETs read whole (cached or coalesced routes) are sent to a second instance when the first one is slow
+        private boolean enabled = false;
+        // waits this long before hedging; when unset, the percentile below of the upstream's recent latencies
+        private Duration delay;
+        private double percentile = 0.95;
+        // hedges allowed per hundred requests, so a slow upstream does not get twice the load
+        private int budgetPercent = 10;
+    }
+}
@@ -0,0 +1,60 @@
+package com.minispotify.gateway.controllers;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.minispotify.gateway.requests.BatchRequest;
+import com.minispotify.gateway.services.BatchService;
+import com.minispotify.gateway.services.RateLimiter;
+import com.minispotify.gateway.services.TokenVerificationService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.function.Function;
+
+@RestController
+@RequiredArgsConstructor
+public class BatchController {
+
+    // the rate limit a batch is charged to, once for all of its entries
+    private static final String RATE_LIMIT_ID = "batch";
+
+    private final BatchService batchService;
+    private final RateLimiter rateLimiter;
+    private final TokenVerificationService tokenVerificationService;
+
+    // GET /songs?ids=1,2,3 and friends; without ids the request goes to the plain list route
+    @GetMapping(path = {"/artists", "/songs", "/users"}, params = "ids")
+    public Mono<ResponseEntity<ObjectNode>> getByIds(ServerHttpRequest request, @RequestParam List<String> ids) {
+        String collectionPath = request.getPath().pathWithinApplication().value();
+        return withVerifiedToken(request.getHeaders(),
+                principal -> batchService.lookup(collectionPath, ids, request.getHeaders(), principal));
+    }
+
+    @PostMapping("/batch")
+    public Mono<ResponseEntity<ObjectNode>> batch(@RequestHeader HttpHeaders headers, @RequestBody BatchRequest batch) {
+        return withVerifiedToken(headers, principal -> batchService.execute(batch, headers, principal));
+    }
+
+    private Mono<ResponseEntity<ObjectNode>> withVerifiedToken(HttpHeaders headers, Function<String, Mono<ObjectNode>> call) {
+        return tokenVerificationService.verify(headers.getFirst(HttpHeaders.AUTHORIZATION)).flatMap(principal -> {
+            if (principal.isEmpty()) {
+                return Mono.just(new ResponseEntity<ObjectNode>(HttpStatus.UNAUTHORIZED));
+            }
+            return rateLimiter.acquire(RATE_LIMIT_ID, principal.get()).flatMap(decision -> decision.allowed()
+                    ? call.apply(principal.get()).map(ResponseEntity::ok)
+                    : Mono.just(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                            .header(HttpHeaders.RETRY_AFTER, String.valueOf(decision.retryAfterSeconds()))
+                            .<ObjectNode>build()));
+        });
+    }
+}
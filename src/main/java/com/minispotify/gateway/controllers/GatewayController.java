@@ -1,359 +1,148 @@
 package com.minispotify.gateway.controllers;
 
-import com.minispotify.gateway.requests.AuthenticationRequest;
-import com.minispotify.gateway.requests.RegisterRequest;
+import com.minispotify.gateway.services.MutationQueue;
+import com.minispotify.gateway.services.RateLimiter;
+import com.minispotify.gateway.services.RouteForwarder;
+import com.minispotify.gateway.services.RouteMetrics;
+import com.minispotify.gateway.services.RouteTable;
+import com.minispotify.gateway.services.TokenVerificationService;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.ValueOperations;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpMethod;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.PathContainer;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
 
-import java.util.Objects;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 
 @RestController
 @RequiredArgsConstructor
 public class GatewayController {
 
-    @Value("${artist.service.url}")
-    private String artistServiceUrl;
-    @Value("${song.service.url}")
-    private String songServiceUrl;
-    @Value("${playlist.service.url}")
-    private String playlistServiceUrl;
-    @Value("${user.service.url}")
-    private String userServiceUrl;
-    @Value("${authentication.service.url}")
-    private String authenticationServiceUrl;
-
-    private final RestTemplate restTemplate;
+    private final RouteTable routeTable;
+    private final RouteForwarder routeForwarder;
+    private final RouteMetrics routeMetrics;
+    private final RateLimiter rateLimiter;
+    private final MutationQueue mutationQueue;
     @NonNull
-    private final StringRedisTemplate redisTemplate;
-
-    // Artist Service Endpoints
-    @GetMapping("/artists")
-    public ResponseEntity<String> getAllArtists(@RequestHeader("Authorization") String token) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return new ResponseEntity<>("Unauthorized", HttpStatus.UNAUTHORIZED);
-        }
-        return restTemplate.getForEntity(artistServiceUrl + "/artists", String.class);
-    }
-
-    @GetMapping("/artists/{artistId}")
-    public ResponseEntity<String> getArtistById(@RequestHeader("Authorization") String token, @RequestParam String artistId) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return new ResponseEntity<>("Unauthorized", HttpStatus.UNAUTHORIZED);
-        }
-        return restTemplate.getForEntity(artistServiceUrl + "/artists/" + artistId, String.class);
-    }
-
-    @PostMapping("/artists")
-    public ResponseEntity<String> createArtist(@RequestHeader("Authorization") String token, @RequestBody String artistDetails) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return new ResponseEntity<>("Unauthorized", HttpStatus.UNAUTHORIZED);
-        }
-        return restTemplate.postForEntity(artistServiceUrl + "/artists", new HttpEntity<>(artistDetails), String.class);
-    }
-
-    @PutMapping("/artists/{artistId}")
-    public ResponseEntity<String> updateArtist(@RequestHeader("Authorization") String token, @RequestParam String artistId, @RequestBody String updatedArtistDetails) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return new ResponseEntity<>("Unauthorized", HttpStatus.UNAUTHORIZED);
-        }
-        return restTemplate.exchange(artistServiceUrl + "/artists/" + artistId, HttpMethod.PUT, new HttpEntity<>(updatedArtistDetails), String.class);
-    }
-
-    @DeleteMapping("/artists/{artistId}")
-    public void deleteArtist(@RequestHeader("Authorization") String token, @RequestParam String artistId) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return;
-        }
-        restTemplate.delete(artistServiceUrl + "/artists/" + artistId);
-    }
-
-    // Song Service Endpoints
-    @GetMapping("/songs")
-    public ResponseEntity<String> getAllSongs(@RequestHeader("Authorization") String token) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return new ResponseEntity<>("Unauthorized", HttpStatus.UNAUTHORIZED);
-        }
-        return restTemplate.getForEntity(songServiceUrl + "/songs", String.class);
-    }
-
-    @GetMapping("/songs/{songId}")
-    public ResponseEntity<String> getSongById(@RequestHeader("Authorization") String token, @RequestParam String songId) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return new ResponseEntity<>("Unauthorized", HttpStatus.UNAUTHORIZED);
-        }
-        return restTemplate.getForEntity(songServiceUrl + "/songs/" + songId, String.class);
-    }
-
-    @PostMapping("/songs")
-    public ResponseEntity<String> createSong(@RequestHeader("Authorization") String token, @RequestBody String songDetails) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return new ResponseEntity<>("Unauthorized", HttpStatus.UNAUTHORIZED);
-        }
-        return restTemplate.postForEntity(songServiceUrl + "/songs", new HttpEntity<>(songDetails), String.class);
-    }
-
-    @PutMapping("/songs/{songId}")
-    public ResponseEntity<String> updateSong(@RequestHeader("Authorization") String token, @RequestParam String songId, @RequestBody String updatedSongDetails) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return new ResponseEntity<>("Unauthorized", HttpStatus.UNAUTHORIZED);
-        }
-        return restTemplate.exchange(songServiceUrl + "/songs/" + songId, HttpMethod.PUT, new HttpEntity<>(updatedSongDetails), String.class);
-    }
-
-    @DeleteMapping("/songs/{songId}")
-    public void deleteSong(@RequestHeader("Authorization") String token, @RequestParam String songId) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return;
-        }
-        restTemplate.delete(songServiceUrl + "/songs/" + songId);
-    }
-
-    // Playlist Service Endpoints
-    @GetMapping("/playlists")
-    public ResponseEntity<String> getAllPlaylists(@RequestHeader("Authorization") String token) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return new ResponseEntity<>("Unauthorized", HttpStatus.UNAUTHORIZED);
-        }
-        return restTemplate.getForEntity(playlistServiceUrl + "/playlists", String.class);
-    }
-
-    @GetMapping("/playlists/{playlistId}")
-    public ResponseEntity<String> getPlaylistById(@RequestHeader("Authorization") String token, @RequestParam String playlistId) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return new ResponseEntity<>("Unauthorized", HttpStatus.UNAUTHORIZED);
-        }
-        return restTemplate.getForEntity(playlistServiceUrl + "/playlists/" + playlistId, String.class);
-    }
-
-    @PostMapping("/playlists")
-    public ResponseEntity<String> createPlaylist(@RequestHeader("Authorization") String token, @RequestBody String playlistDetails) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return new ResponseEntity<>("Unauthorized", HttpStatus.UNAUTHORIZED);
-        }
-        return restTemplate.postForEntity(playlistServiceUrl + "/playlists", new HttpEntity<>(playlistDetails), String.class);
-    }
-
-    @PutMapping("/playlists/{playlistId}")
-    public ResponseEntity<String> updatePlaylist(@RequestHeader("Authorization") String token, @RequestParam String playlistId, @RequestBody String updatedPlaylistDetails) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return new ResponseEntity<>("Unauthorized", HttpStatus.UNAUTHORIZED);
-        }
-        return restTemplate.exchange(playlistServiceUrl + "/playlists/" + playlistId, HttpMethod.PUT, new HttpEntity<>(updatedPlaylistDetails), String.class);
-    }
-
-    @DeleteMapping("/playlists/{playlistId}")
-    public void deletePlaylist(@RequestHeader("Authorization") String token, @RequestParam String playlistId) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return;
-        }
-        restTemplate.delete(playlistServiceUrl + "/playlists/" + playlistId);
-    }
-
-    // User Service Endpoints
-    @GetMapping("/users")
-    public ResponseEntity<String> getAllUsers(@RequestHeader("Authorization") String token) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return new ResponseEntity<>("Unauthorized", HttpStatus.UNAUTHORIZED);
-        }
-        return restTemplate.getForEntity(userServiceUrl + "/users", String.class);
+    private final TokenVerificationService tokenVerificationService;
+
+    // Artist, song, playlist, user and authentication service endpoints are all declared in the gateway.routes table
+    @RequestMapping("/**")
+    public Mono<Void> forward(ServerWebExchange exchange) {
+        ServerHttpRequest request = exchange.getRequest();
+        PathContainer path = request.getPath().pathWithinApplication();
+
+        RouteTable.RouteMatch match = routeTable.match(request.getMethod(), path)
+                .orElseThrow(() -> new ResponseStatusException(
+                        routeTable.hasPath(path) ? HttpStatus.METHOD_NOT_ALLOWED : HttpStatus.NOT_FOUND));
+
+        RouteMetrics.RouteMeters meters = routeMetrics.meters(match.route());
+        return Mono.defer(() -> {
+            long started = meters.started();
+            return authenticateAndForward(exchange, match, meters, started)
+                    .doFinally(signal -> meters.finished(started));
+        });
+    }
+
+    private Mono<Void> authenticateAndForward(ServerWebExchange exchange, RouteTable.RouteMatch match,
+                                              RouteMetrics.RouteMeters meters, long started) {
+        if (!match.route().authenticated()) {
+            return limitAndForward(exchange, match, clientAddress(exchange.getRequest()));
+        }
+        return verifyToken(exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION)).flatMap(verifyResponse -> {
+            meters.verified(started);
+            if (verifyResponse.getStatusCode() != HttpStatus.OK) {
+                return unauthorized(exchange.getResponse());
+            }
+            exchange.getAttributes().put(RouteForwarder.PRINCIPAL_ATTRIBUTE, verifyResponse.getBody());
+            return limitAndForward(exchange, match, verifyResponse.getBody());
+        });
+    }
+
+    private Mono<Void> limitAndForward(ServerWebExchange exchange, RouteTable.RouteMatch match, String principal) {
+        return rateLimiter.acquire(match.route().id(), principal).flatMap(decision -> decision.allowed()
+                ? queueOrForward(exchange, match, principal)
+                : tooManyRequests(exchange.getResponse(), decision));
+    }
+
+    private Mono<Void> queueOrForward(ServerWebExchange exchange, RouteTable.RouteMatch match, String principal) {
+        ServerHttpRequest request = exchange.getRequest();
+        if (!mutationQueue.queues(request, match)) {
+            return routeForwarder.forward(exchange, match);
+        }
+        return DataBufferUtils.join(request.getBody(), mutationQueue.maxBodySize())
+                .map(buffer -> {
+                    byte[] body = new byte[buffer.readableByteCount()];
+                    buffer.read(body);
+                    DataBufferUtils.release(buffer);
+                    return body;
+                })
+                .defaultIfEmpty(new byte[0])
+                .flatMap(body -> mutationQueue.enqueue(match, request, body, principal)
+                        .flatMap(id -> accepted(exchange.getResponse(), id))
+                        // forwarded now, the write could overtake the principal's writes still in the queue
+                        .onErrorResume(e -> serviceUnavailable(exchange.getResponse())))
+                .onErrorResume(DataBufferLimitException.class, e -> payloadTooLarge(exchange.getResponse()));
     }
 
-    @GetMapping("/users/{userId}")
-    public ResponseEntity<String> getUserById(@RequestHeader("Authorization") String token, @RequestParam String userId) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return new ResponseEntity<>("Unauthorized", HttpStatus.UNAUTHORIZED);
-        }
-        return restTemplate.getForEntity(userServiceUrl + "/users/" + userId, String.class);
-    }
-
-    @PostMapping("/users")
-    public ResponseEntity<String> createUser(@RequestHeader("Authorization") String token, @RequestBody String userDetails) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return new ResponseEntity<>("Unauthorized", HttpStatus.UNAUTHORIZED);
-        }
-        return restTemplate.postForEntity(userServiceUrl + "/users", new HttpEntity<>(userDetails), String.class);
-    }
-
-    @PutMapping("/users/{userId}")
-    public ResponseEntity<String> updateUser(@RequestHeader("Authorization") String token, @RequestParam String userId, @RequestBody String updatedUserDetails) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return new ResponseEntity<>("Unauthorized", HttpStatus.UNAUTHORIZED);
-        }
-        return restTemplate.exchange(userServiceUrl + "/users/" + userId, HttpMethod.PUT, new HttpEntity<>(updatedUserDetails), String.class);
-    }
-
-    @DeleteMapping("/users/{userId}")
-    public void deleteUser(@RequestHeader("Authorization") String token, @RequestParam String userId) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return;
-        }
-        restTemplate.delete(userServiceUrl + "/users/" + userId);
-    }
-
-    // Functional endpoints
-    @GetMapping("/users/{userId}/playlists")
-    public ResponseEntity<String> getUserPlaylists(@RequestHeader("Authorization") String token, @RequestParam String userId) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return new ResponseEntity<>("Unauthorized", HttpStatus.UNAUTHORIZED);
-        }
-        return restTemplate.getForEntity(userServiceUrl + "/users/" + userId + "/playlists", String.class);
-    }
-
-    @PostMapping("/users/{userId}/playlists/{playlistId}")
-    public ResponseEntity<String> addUserPlaylist(@RequestHeader("Authorization") String token, @RequestParam String userId, @RequestParam String playlistId) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return new ResponseEntity<>("Unauthorized", HttpStatus.UNAUTHORIZED);
-        }
-        return restTemplate.postForEntity(userServiceUrl + "/users/" + userId + "/playlists/" + playlistId, null, String.class);
-    }
-
-    @DeleteMapping("/users/{userId}/playlists/{playlistId}")
-    public void removeUserPlaylist(@RequestHeader("Authorization") String token, @RequestParam String userId, @RequestParam String playlistId) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return;
-        }
-        restTemplate.delete(userServiceUrl + "/users/" + userId + "/playlists/" + playlistId);
-    }
-
-    @GetMapping("/users/{userId}/songs")
-    public ResponseEntity<String> getUserSongs(@RequestHeader("Authorization") String token, @RequestParam String userId) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return new ResponseEntity<>("Unauthorized", HttpStatus.UNAUTHORIZED);
-        }
-        return restTemplate.getForEntity(userServiceUrl + "/users/" + userId + "/songs", String.class);
-    }
-
-    @PostMapping("/users/{userId}/songs/{songId}")
-    public ResponseEntity<String> addUserSong(@RequestHeader("Authorization") String token, @RequestParam String userId, @RequestParam String songId) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return new ResponseEntity<>("Unauthorized", HttpStatus.UNAUTHORIZED);
-        }
-        return restTemplate.postForEntity(userServiceUrl + "/users/" + userId + "/songs/" + songId, null, String.class);
-    }
-
-    @DeleteMapping("/users/{userId}/songs/{songId}")
-    public void removeUserSong(@RequestHeader("Authorization") String token, @RequestParam String userId, @RequestParam String songId) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return;
-        }
-        restTemplate.delete(userServiceUrl + "/users/" + userId + "/songs/" + songId);
-    }
-
-    @GetMapping("/users/{userId}/artists")
-    public ResponseEntity<String> getUserArtists(@RequestHeader("Authorization") String token, @RequestParam String userId) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return new ResponseEntity<>("Unauthorized", HttpStatus.UNAUTHORIZED);
-        }
-        return restTemplate.getForEntity(userServiceUrl + "/users/" + userId + "/artists", String.class);
-    }
-
-    @PostMapping("/users/{userId}/artists/{artistId}")
-    public ResponseEntity<String> addUserArtist(@RequestHeader("Authorization") String token, @RequestParam String userId, @RequestParam String artistId) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return new ResponseEntity<>("Unauthorized", HttpStatus.UNAUTHORIZED);
-        }
-        return restTemplate.postForEntity(userServiceUrl + "/users/" + userId + "/artists/" + artistId, null, String.class);
-    }
-
-    @DeleteMapping("/users/{userId}/artists/{artistId}")
-    public void removeUserArtist(@RequestHeader("Authorization") String token, @RequestParam String userId, @RequestParam String artistId) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return;
-        }
-        restTemplate.delete(userServiceUrl + "/users/" + userId + "/artists/" + artistId);
+    @PostMapping("/verify")
+    public Mono<ResponseEntity<String>> verifyToken(String token) {
+        //search in redis (through the local token cache) if there isnt a token unauthorized
+        //token is hashed with the same key and value
+        return tokenVerificationService.verify(token)
+                .map(value -> value
+                        .map(v -> new ResponseEntity<>(v, HttpStatus.OK))
+                        .orElseGet(() -> new ResponseEntity<>(HttpStatus.FORBIDDEN)));
     }
 
-    @PostMapping("/users/{userId}/playlists/{playlistId}/songs/{songId}")
-    public ResponseEntity<String> addSongToPlaylist(@RequestHeader("Authorization") String token, @RequestParam String userId, @RequestParam String playlistId, @RequestParam String songId) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return new ResponseEntity<>("Unauthorized", HttpStatus.UNAUTHORIZED);
-        }
-        return restTemplate.postForEntity(userServiceUrl + "/users/" + userId + "/playlists/" + playlistId + "/songs/" + songId, null, String.class);
+    private static Mono<Void> tooManyRequests(ServerHttpResponse response, RateLimiter.Decision decision) {
+        response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, String.valueOf(decision.retryAfterSeconds()));
+        DataBuffer body = response.bufferFactory().wrap("Too Many Requests".getBytes(StandardCharsets.UTF_8));
+        return response.writeWith(Mono.just(body));
     }
 
-    @DeleteMapping("/users/{userId}/playlists/{playlistId}/songs/{songId}")
-    public void removeSongFromPlaylist(@RequestHeader("Authorization") String token, @RequestParam String userId, @RequestParam String playlistId, @RequestParam String songId) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return;
-        }
-        restTemplate.delete(userServiceUrl + "/users/" + userId + "/playlists/" + playlistId + "/songs/" + songId);
+    private static Mono<Void> accepted(ServerHttpResponse response, String mutationId) {
+        response.setStatusCode(HttpStatus.ACCEPTED);
+        response.getHeaders().set(MutationQueue.ID_HEADER, mutationId);
+        DataBuffer body = response.bufferFactory().wrap("Accepted".getBytes(StandardCharsets.UTF_8));
+        return response.writeWith(Mono.just(body));
     }
 
-    @GetMapping("/users/{userId}/playlists/{playlistId}/songs")
-    public ResponseEntity<String> getPlaylistSongs(@RequestHeader("Authorization") String token, @RequestParam String userId, @RequestParam String playlistId) {
-        ResponseEntity<String> verifyResponse = verifyToken(token);
-        if (verifyResponse.getStatusCode() != HttpStatus.OK) {
-            return new ResponseEntity<>("Unauthorized", HttpStatus.UNAUTHORIZED);
-        }
-        return restTemplate.getForEntity(userServiceUrl + "/users/" + userId + "/playlists/" + playlistId + "/songs", String.class);
+    private static Mono<Void> serviceUnavailable(ServerHttpResponse response) {
+        response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, "1");
+        DataBuffer body = response.bufferFactory().wrap("Service Unavailable".getBytes(StandardCharsets.UTF_8));
+        return response.writeWith(Mono.just(body));
     }
 
-    // Authentication Service Endpoints
-    @PostMapping("/login")
-    public ResponseEntity<String> login(@RequestBody AuthenticationRequest loginDetails) {
-        return restTemplate.postForEntity(authenticationServiceUrl + "/authenticate", new HttpEntity<>(loginDetails), String.class);
+    private static Mono<Void> payloadTooLarge(ServerHttpResponse response) {
+        response.setStatusCode(HttpStatus.PAYLOAD_TOO_LARGE);
+        DataBuffer body = response.bufferFactory().wrap("Payload Too Large".getBytes(StandardCharsets.UTF_8));
+        return response.writeWith(Mono.just(body));
     }
 
-    @PostMapping("/register")
-    public ResponseEntity<String> register(@RequestBody RegisterRequest registrationDetails) {
-        return restTemplate.postForEntity(authenticationServiceUrl + "/register", new HttpEntity<>(registrationDetails), String.class);
+    private static String clientAddress(ServerHttpRequest request) {
+        InetSocketAddress remoteAddress = request.getRemoteAddress();
+        return remoteAddress != null && remoteAddress.getAddress() != null
+                ? remoteAddress.getAddress().getHostAddress()
+                : "unknown";
     }
 
-    @PostMapping("/verify")
-    public ResponseEntity<String> verifyToken(String token) {
-        //search in redis first if there isnt a token unauthorized
-        //token is hashed with the same key and value
-
-        //remove bearer from token
-        token = token.substring(7);
-
-        ValueOperations<String, String> ops = redisTemplate.opsForValue();
-        String value = ops.get(token);
-        if (Objects.isNull(value)) {
-            return new ResponseEntity<>(HttpStatus.FORBIDDEN);
-        }
-
-        return new ResponseEntity<>(value, HttpStatus.OK);
+    private static Mono<Void> unauthorized(ServerHttpResponse response) {
+        response.setStatusCode(HttpStatus.UNAUTHORIZED);
+        DataBuffer body = response.bufferFactory().wrap("Unauthorized".getBytes(StandardCharsets.UTF_8));
+        return response.writeWith(Mono.just(body));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,42 @@
+package com.minispotify.gateway.controllers;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.minispotify.gateway.services.LibraryService;
+import com.minispotify.gateway.services.RateLimiter;
+import com.minispotify.gateway.services.TokenVerificationService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+@RestController
+@RequiredArgsConstructor
+public class LibraryController {
+
+    // the rate limit a library request is charged to, once for all of its reads
+    private static final String RATE_LIMIT_ID = "library";
+
+    private final LibraryService libraryService;
+    private final RateLimiter rateLimiter;
+    private final TokenVerificationService tokenVerificationService;
+
+    // Playlists, songs and artists of a user in one response, replacing three calls to the functional endpoints
+    @GetMapping("/users/{userId}/library")
+    public Mono<ResponseEntity<ObjectNode>> getUserLibrary(@RequestHeader HttpHeaders headers, @PathVariable String userId) {
+        return tokenVerificationService.verify(headers.getFirst(HttpHeaders.AUTHORIZATION)).flatMap(principal -> {
+            if (principal.isEmpty()) {
+                return Mono.just(new ResponseEntity<ObjectNode>(HttpStatus.UNAUTHORIZED));
+            }
+            return rateLimiter.acquire(RATE_LIMIT_ID, principal.get()).flatMap(decision -> decision.allowed()
+                    ? libraryService.library(userId, headers, principal.get()).map(ResponseEntity::ok)
+                    : Mono.just(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                            .header(HttpHeaders.RETRY_AFTER, String.valueOf(decision.retryAfterSeconds()))
+                            .<ObjectNode>build()));
+        });
+    }
+}
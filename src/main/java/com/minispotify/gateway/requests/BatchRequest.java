@@ -0,0 +1,31 @@
+package com.minispotify.gateway.requests;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchRequest {
+    @Builder.Default
+    private List<Item> requests = new ArrayList<>();
+
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Item {
+        // echoed back so the caller can match responses to requests
+        private String id;
+        @Builder.Default
+        private String method = "GET";
+        // gateway path including any query string, e.g. /songs/42
+        private String path;
+    }
+}
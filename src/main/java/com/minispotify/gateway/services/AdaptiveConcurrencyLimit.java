@@ -0,0 +1,100 @@
+package com.minispotify.gateway.services;
+
+import com.minispotify.gateway.config.UpstreamProperties;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gradient concurrency limit steered by latency. Calls are judged a window of samples at a time: the
+ * window's median latency is compared with the upstream's long-term latency, an average over many
+ * windows. A window with a failure, or whose median exceeds the tolerated multiple of the long-term
+ * latency, cuts the limit once by the backoff ratio. A healthy window grows it by the square root of the
+ * limit, the queue a limit that size can afford, but only while the limit is actually being used. The
+ * long-term latency follows a permanently slower service within a few dozen windows, so it is not held
+ * at the minimum limit forever.
+ */
+public class AdaptiveConcurrencyLimit {
+
+    // how far each window moves the long-term latency towards its own median
+    private static final double LONG_TERM_SMOOTHING = 0.05;
+
+    private final UpstreamProperties.ConcurrencyLimit properties;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final long[] window;
+    private volatile double limit;
+    private double longTermNanos = Double.NaN;
+    private int samples;
+    private int succeeded;
+    private boolean failedInWindow;
+    private int peakInFlight;
+
+    public AdaptiveConcurrencyLimit(UpstreamProperties.ConcurrencyLimit properties) {
+        this.properties = properties;
+        this.limit = properties.getInitialLimit();
+        this.window = new long[properties.getWindowSize()];
+    }
+
+    public boolean tryAcquire() {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= (int) limit) {
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Feeds the outcome of a call back into the limit, which moves once the window it completes is full.
+     *
+     * @param inFlightAtStart calls in flight when this one was admitted, including itself
+     */
+    public synchronized void onSample(long latencyNanos, boolean failed, int inFlightAtStart) {
+        if (failed) {
+            failedInWindow = true;
+        } else {
+            window[succeeded++] = latencyNanos;
+        }
+        peakInFlight = Math.max(peakInFlight, inFlightAtStart);
+        if (++samples == window.length) {
+            closeWindow();
+        }
+    }
+
+    private void closeWindow() {
+        if (succeeded > 0) {
+            long[] latencies = Arrays.copyOf(window, succeeded);
+            Arrays.sort(latencies);
+            // the median, so a single stalled call does not make the whole window slow
+            double shortTermNanos = latencies[succeeded / 2];
+            longTermNanos = Double.isNaN(longTermNanos)
+                    ? shortTermNanos
+                    : longTermNanos + (shortTermNanos - longTermNanos) * LONG_TERM_SMOOTHING;
+            failedInWindow |= shortTermNanos > longTermNanos * properties.getLatencyTolerance();
+        }
+        if (failedInWindow) {
+            limit = Math.max(properties.getMinLimit(), limit * properties.getBackoffRatio());
+        } else if (peakInFlight * 2 >= limit) {
+            // only grow while the limit is what holds the traffic back
+            limit = Math.min(properties.getMaxLimit(), limit + Math.sqrt(limit));
+        }
+        samples = 0;
+        succeeded = 0;
+        failedInWindow = false;
+        peakInFlight = 0;
+    }
+
+    public int limit() {
+        return (int) limit;
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+}
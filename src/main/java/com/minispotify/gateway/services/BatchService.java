@@ -0,0 +1,165 @@
+package com.minispotify.gateway.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.minispotify.gateway.config.BatchProperties;
+import com.minispotify.gateway.requests.BatchRequest;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.PathContainer;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.util.UriComponents;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Many reads for the price of one gateway call. Every read goes through {@link RouteForwarder#read}, so
+ * entries already in the response cache are served from it and identical reads in flight are shared;
+ * only the rest reach the upstream, a bounded number at a time. None of the upstream services has a
+ * multi-get, so the remaining lookups are issued one id at a time.
+ */
+@Service
+@RequiredArgsConstructor
+public class BatchService {
+
+    private final RouteTable routeTable;
+    private final RouteForwarder routeForwarder;
+    private final ObjectMapper objectMapper;
+    private final BatchProperties properties;
+
+    /**
+     * Looks every id up under {@code collectionPath}/{id}. Found entities are returned by id in request
+     * order; ids that could not be loaded are listed in errors with the reason.
+     */
+    public Mono<ObjectNode> lookup(String collectionPath, List<String> ids, HttpHeaders headers, String principal) {
+        List<String> distinctIds = List.copyOf(new LinkedHashSet<>(ids));
+        checkSize(distinctIds.size());
+
+        return Flux.fromIterable(distinctIds)
+                .flatMapSequential(id -> read(collectionPath + "/" + UriUtils.encodePathSegment(id, StandardCharsets.UTF_8), headers, principal)
+                        .map(response -> new Result(id, response, null))
+                        .onErrorResume(e -> Mono.just(new Result(id, null, e))), properties.getConcurrency())
+                .collectList()
+                .map(results -> {
+                    ObjectNode items = objectMapper.createObjectNode();
+                    ObjectNode errors = objectMapper.createObjectNode();
+                    for (Result result : results) {
+                        if (result.error() == null && result.response().status().is2xxSuccessful()) {
+                            items.set(result.key(), body(result.response()));
+                        } else {
+                            errors.put(result.key(), result.reason());
+                        }
+                    }
+                    ObjectNode document = objectMapper.createObjectNode();
+                    document.set("items", items);
+                    if (!errors.isEmpty()) {
+                        document.set("errors", errors);
+                    }
+                    return document;
+                });
+    }
+
+    /**
+     * Runs every request of the envelope and returns their responses in the same order. Only GETs are
+     * accepted; anything else is answered with 405 for that entry alone.
+     */
+    public Mono<ObjectNode> execute(BatchRequest batch, HttpHeaders headers, String principal) {
+        if (batch.getRequests() == null || batch.getRequests().contains(null)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "requests must be a list of request objects");
+        }
+        checkSize(batch.getRequests().size());
+
+        return Flux.fromIterable(batch.getRequests())
+                .flatMapSequential(item -> {
+                    if (!HttpMethod.GET.name().equalsIgnoreCase(item.getMethod())) {
+                        return Mono.just(new Result(item.getId(), null,
+                                new ResponseStatusException(HttpStatus.METHOD_NOT_ALLOWED, "only GET is supported in a batch")));
+                    }
+                    return read(item.getPath(), headers, principal)
+                            .map(response -> new Result(item.getId(), response, null))
+                            .onErrorResume(e -> Mono.just(new Result(item.getId(), null, e)));
+                }, properties.getConcurrency())
+                .collectList()
+                .map(results -> {
+                    ArrayNode responses = objectMapper.createArrayNode();
+                    results.forEach(result -> responses.add(envelopeEntry(result)));
+                    ObjectNode document = objectMapper.createObjectNode();
+                    document.set("responses", responses);
+                    return document;
+                });
+    }
+
+    private Mono<BufferedResponse> read(String path, HttpHeaders headers, String principal) {
+        if (path == null || !path.startsWith("/")) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "path must start with /"));
+        }
+        UriComponents uri = UriComponentsBuilder.fromUriString(path).build();
+        return Mono.justOrEmpty(routeTable.match(HttpMethod.GET, PathContainer.parsePath(uri.getPath())))
+                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "no route serves GET " + uri.getPath())))
+                .flatMap(match -> routeForwarder.read(match, uri.getQuery(), headers, principal));
+    }
+
+    private ObjectNode envelopeEntry(Result result) {
+        ObjectNode entry = objectMapper.createObjectNode();
+        entry.put("id", result.key());
+        if (result.error() != null) {
+            entry.put("status", result.error() instanceof ResponseStatusException e ? e.getStatusCode().value() : HttpStatus.BAD_GATEWAY.value());
+            entry.put("error", result.reason());
+            return entry;
+        }
+        entry.put("status", result.response().status().value());
+        MediaType contentType = result.response().headers().getContentType();
+        if (contentType != null) {
+            entry.put("contentType", contentType.toString());
+        }
+        if (result.response().body().length > 0) {
+            entry.set("body", body(result.response()));
+        }
+        return entry;
+    }
+
+    // JSON bodies are embedded as they are, anything else as a string
+    private JsonNode body(BufferedResponse response) {
+        MediaType contentType = response.headers().getContentType();
+        if (contentType == null || contentType.isCompatibleWith(MediaType.APPLICATION_JSON)) {
+            try {
+                return objectMapper.readTree(response.body());
+            } catch (IOException e) {
+                // not JSON after all, fall through to text
+            }
+        }
+        return objectMapper.getNodeFactory().textNode(new String(response.body(), StandardCharsets.UTF_8));
+    }
+
+    private void checkSize(int size) {
+        if (size == 0 || size > properties.getMaxItems()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "a batch needs between 1 and " + properties.getMaxItems() + " entries");
+        }
+    }
+
+    private record Result(String key, BufferedResponse response, Throwable error) {
+        String reason() {
+            if (error instanceof ResponseStatusException e) {
+                return e.getReason();
+            }
+            if (error != null) {
+                return error.getMessage();
+            }
+            return "upstream answered " + response.status().value();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.minispotify.gateway.services;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+
+/**
+ * An upstream response read fully into memory, for the paths that have to look at or keep the body.
+ * {@code gzipped} is the body as the upstream sent it when that was gzip, relayed as it is to clients that
+ * accept gzip instead of compressing the inflated body again; null when the upstream did not gzip it.
+ */
+public record BufferedResponse(HttpStatusCode status, HttpHeaders headers, byte[] body, byte[] gzipped) {
+
+    public BufferedResponse(HttpStatusCode status, HttpHeaders headers, byte[] body) {
+        this(status, headers, body, null);
+    }
+}
@@ -0,0 +1,101 @@
+package com.minispotify.gateway.services;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.util.DigestUtils;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A response as kept by the response cache. {@code etag} is what clients revalidate against; it is the
+ * upstream's own ETag when it sent one and a digest of the body otherwise. {@code upstreamEtag} and
+ * {@code lastModified} are only set from the upstream and are what the gateway revalidates with.
+ * {@code generation} is the generation of the entry's cache region when it was fetched, an entry from an
+ * older generation was fetched before the region was last invalidated.
+ */
+public record CachedResponse(int status,
+                             Map<String, List<String>> headers,
+                             byte[] body,
+                             String etag,
+                             String upstreamEtag,
+                             String lastModified,
+                             long storedAt,
+                             long ttlMillis,
+                             long generation) {
+
+    // recomputed or regenerated when the entry is written out
+    private static final List<String> UNSTORED_HEADERS = List.of(
+            HttpHeaders.CONTENT_LENGTH, HttpHeaders.DATE, HttpHeaders.ETAG, HttpHeaders.SET_COOKIE);
+
+    public static CachedResponse of(BufferedResponse response, Duration ttl, long now, long generation) {
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        response.headers().forEach((name, values) -> {
+            if (UNSTORED_HEADERS.stream().noneMatch(name::equalsIgnoreCase)) {
+                headers.put(name, values);
+            }
+        });
+        String upstreamEtag = response.headers().getETag();
+        String etag = upstreamEtag != null ? upstreamEtag : "W/\"" + DigestUtils.md5DigestAsHex(response.body()) + "\"";
+        return new CachedResponse(response.status().value(), headers, response.body(), etag, upstreamEtag,
+                response.headers().getFirst(HttpHeaders.LAST_MODIFIED), now, ttl.toMillis(), generation);
+    }
+
+    public BufferedResponse toBufferedResponse() {
+        HttpHeaders httpHeaders = new HttpHeaders();
+        headers.forEach(httpHeaders::addAll);
+        if (status == HttpStatus.OK.value()) {
+            httpHeaders.set(HttpHeaders.ETAG, etag);
+        }
+        return new BufferedResponse(HttpStatusCode.valueOf(status), httpHeaders, body);
+    }
+
+    public boolean isFresh(long now) {
+        return now - storedAt < ttlMillis;
+    }
+
+    public boolean canRevalidate() {
+        return upstreamEtag != null || lastModified != null;
+    }
+
+    /**
+     * This entry made fresh again by a 304 from the upstream, with the headers the 304 sent replacing the
+     * stored ones (RFC 9111 section 4.3.4).
+     */
+    public CachedResponse refreshed(HttpHeaders notModified, Duration ttl, long now, long generation) {
+        Map<String, List<String>> merged = new LinkedHashMap<>();
+        headers.forEach((name, values) -> {
+            if (!notModified.containsKey(name)) {
+                merged.put(name, values);
+            }
+        });
+        notModified.forEach((name, values) -> {
+            if (UNSTORED_HEADERS.stream().noneMatch(name::equalsIgnoreCase)) {
+                merged.put(name, values);
+            }
+        });
+        String newUpstreamEtag = notModified.getETag() != null ? notModified.getETag() : upstreamEtag;
+        String newLastModified = notModified.getFirst(HttpHeaders.LAST_MODIFIED) != null
+                ? notModified.getFirst(HttpHeaders.LAST_MODIFIED)
+                : lastModified;
+        String newEtag = newUpstreamEtag != null && !newUpstreamEtag.equals(upstreamEtag) ? newUpstreamEtag : etag;
+        return new CachedResponse(status, merged, body, newEtag, newUpstreamEtag, newLastModified, now, ttl.toMillis(),
+                generation);
+    }
+
+    /**
+     * Whether a client that sent the given If-None-Match values already holds this representation.
+     */
+    public boolean matches(List<String> ifNoneMatch) {
+        String opaque = opaque(etag);
+        return ifNoneMatch.stream().anyMatch(candidate -> candidate.equals("*") || opaque(candidate).equals(opaque));
+    }
+
+    // If-None-Match uses weak comparison, so W/"x" and "x" are the same validator
+    private static String opaque(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+}
@@ -0,0 +1,26 @@
+package com.minispotify.gateway.services;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Out of service in JWT mode until the JWK set has been loaded once, every token would be rejected
+ * before that. Part of the readiness group, so no traffic is routed to a gateway that cannot verify it.
+ */
+@Component("jwks")
+public class JwksHealthIndicator implements HealthIndicator {
+
+    private final JwtTokenVerifier jwtTokenVerifier;
+
+    public JwksHealthIndicator(JwtTokenVerifier jwtTokenVerifier) {
+        this.jwtTokenVerifier = jwtTokenVerifier;
+    }
+
+    @Override
+    public Health health() {
+        return jwtTokenVerifier.keysLoaded()
+                ? Health.up().build()
+                : Health.outOfService().withDetail("reason", "JWK set not loaded yet").build();
+    }
+}
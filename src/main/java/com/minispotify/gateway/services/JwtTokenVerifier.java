@@ -0,0 +1,257 @@
+package com.minispotify.gateway.services;
+
+import com.minispotify.gateway.config.AuthProperties;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.source.ImmutableSecret;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jose.proc.JWSKeySelector;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.proc.DefaultJWTClaimsVerifier;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Validates bearer tokens as JWTs signed by the authentication service: signature, expiry, issuer and
+ * audience are all checked in-process against keys held in memory. The JWK set and the set of revoked token
+ * ids are refreshed in the background, so a request never waits on the authentication service or redis,
+ * and a redis outage only delays revocations instead of failing every request. A token signed with a key
+ * the set does not hold yet is rejected but refreshes the set early, at most once per
+ * {@code jwks-min-refresh-interval}, and the {@link JwksHealthIndicator} keeps the gateway out of service
+ * until a set has been loaded.
+ */
+@Slf4j
+@Component
+public class JwtTokenVerifier {
+
+    private static final Duration JWKS_FETCH_TIMEOUT = Duration.ofSeconds(10);
+
+    private final AuthProperties.Jwt properties;
+    private final boolean enabled;
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final RedisSubscriptions redisSubscriptions;
+    private final WebClient webClient;
+    private final AtomicReference<JWKSet> keys = new AtomicReference<>(new JWKSet());
+    private final AtomicLong lastEarlyRefresh = new AtomicLong();
+    private volatile boolean keysLoaded;
+    // revoked jti -> expiry of the token plus the clock skew in epoch seconds, after which the token is refused anyway
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+    private final Disposable.Composite background = Disposables.composite();
+    private DefaultJWTProcessor<SecurityContext> processor;
+    private Counter accepted;
+    private Counter rejected;
+    private Counter revokedRejections;
+
+    public JwtTokenVerifier(AuthProperties authProperties,
+                            ReactiveStringRedisTemplate redisTemplate,
+                            RedisSubscriptions redisSubscriptions,
+                            WebClient.Builder webClientBuilder,
+                            MeterRegistry meterRegistry) {
+        this.properties = authProperties.getJwt();
+        this.enabled = authProperties.getMode() == AuthProperties.Mode.JWT;
+        this.redisTemplate = redisTemplate;
+        this.redisSubscriptions = redisSubscriptions;
+        this.webClient = webClientBuilder.build();
+        if (!enabled) {
+            return;
+        }
+
+        lastEarlyRefresh.set(System.nanoTime() - properties.getJwksMinRefreshInterval().toNanos());
+        processor = new DefaultJWTProcessor<>();
+        processor.setJWSKeySelector(keySelector());
+        JWTClaimsSet exactMatch = properties.getIssuer() != null
+                ? new JWTClaimsSet.Builder().issuer(properties.getIssuer()).build()
+                : null;
+        DefaultJWTClaimsVerifier<SecurityContext> claimsVerifier = new DefaultJWTClaimsVerifier<>(
+                properties.getAudience(), exactMatch, Set.of("exp", properties.getPrincipalClaim()));
+        claimsVerifier.setMaxClockSkew((int) properties.getClockSkew().toSeconds());
+        processor.setJWTClaimsSetVerifier(claimsVerifier);
+
+        accepted = verifications(meterRegistry, "accepted");
+        rejected = verifications(meterRegistry, "rejected");
+        revokedRejections = verifications(meterRegistry, "revoked");
+        Gauge.builder("gateway.auth.jwt.revoked", revoked, Map::size).register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startBackgroundRefresh() {
+        if (!enabled) {
+            return;
+        }
+        if (properties.getSecret() == null) {
+            background.add(every(properties.getJwksRefreshInterval(), refreshKeys(), "JWK set refresh"));
+        }
+        background.add(every(properties.getRevocationSyncInterval(), syncRevocations(), "revoked token sync"));
+        background.add(redisSubscriptions.messages(List.of(new ChannelTopic(properties.getRevocationChannel())), "jti revocations")
+                .subscribe(this::revoke));
+    }
+
+    @PreDestroy
+    public void stopBackgroundRefresh() {
+        background.dispose();
+    }
+
+    /**
+     * The principal claim of a valid, unrevoked token, or an empty optional for anything else.
+     */
+    public Optional<String> verify(String token) {
+        JWTClaimsSet claims;
+        try {
+            claims = processor.process(token, null);
+        } catch (ParseException | BadJOSEException | JOSEException e) {
+            rejected.increment();
+            return Optional.empty();
+        }
+        String jti = claims.getJWTID();
+        if (jti != null && revoked.containsKey(jti)) {
+            // the token itself says how long its jti has to be remembered, whatever was published
+            long rememberUntil = rememberUntil(claims.getExpirationTime().toInstant().getEpochSecond());
+            revoked.computeIfPresent(jti, (id, expiresAt) -> Math.min(expiresAt, rememberUntil));
+            revokedRejections.increment();
+            return Optional.empty();
+        }
+        accepted.increment();
+        return Optional.of(claims.getClaim(properties.getPrincipalClaim()).toString());
+    }
+
+    /**
+     * Whether tokens can be verified: always with a shared secret, with a JWK set once one has been loaded.
+     */
+    public boolean keysLoaded() {
+        return !enabled || properties.getSecret() != null || keysLoaded;
+    }
+
+    /**
+     * Revokes the jti of a "{@code <jti> <expiry>}" message, remembered until the token's expiry. A bare jti is
+     * remembered for the longest token lifetime, or until the token is presented or the next sync finds the
+     * expiry stored alongside it in redis.
+     */
+    public void revoke(String message) {
+        String[] parts = message.trim().split("\\s+");
+        long expiresAt;
+        try {
+            expiresAt = parts.length > 1
+                    ? Long.parseLong(parts[1])
+                    : Instant.now().plus(properties.getMaxTokenLifetime()).getEpochSecond();
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring malformed jti revocation {}", message);
+            return;
+        }
+        revoked.merge(parts[0], rememberUntil(expiresAt), Math::min);
+    }
+
+    Mono<Void> refreshKeys() {
+        return webClient.get()
+                .uri(properties.getJwksUri())
+                .retrieve()
+                .bodyToMono(String.class)
+                .timeout(JWKS_FETCH_TIMEOUT)
+                .flatMap(body -> Mono.fromCallable(() -> JWKSet.parse(body)))
+                .doOnNext(set -> {
+                    keys.set(set.toPublicJWKSet());
+                    keysLoaded = true;
+                })
+                .then();
+    }
+
+    // keys rotated since the last refresh, or none could be loaded so far
+    private void refreshEarly() {
+        long now = System.nanoTime();
+        long last = lastEarlyRefresh.get();
+        if (now - last < properties.getJwksMinRefreshInterval().toNanos() || !lastEarlyRefresh.compareAndSet(last, now)) {
+            return;
+        }
+        refreshKeys().subscribe(null, e -> log.warn("JWK set refresh for an unknown key failed: {}", e.getMessage()));
+    }
+
+    Mono<Void> syncRevocations() {
+        return Mono.defer(() -> {
+            long now = Instant.now().getEpochSecond();
+            long stillAccepted = now - properties.getClockSkew().toSeconds();
+            return redisTemplate.opsForZSet()
+                    .rangeByScoreWithScores(properties.getRevokedKey(), Range.rightUnbounded(Range.Bound.inclusive((double) stillAccepted)))
+                    .doOnNext(entry -> revoked.put(entry.getValue(), expiry(entry)))
+                    .then(Mono.fromRunnable(() -> revoked.values().removeIf(expiresAt -> expiresAt < now)));
+        });
+    }
+
+    private JWSKeySelector<SecurityContext> keySelector() {
+        if (properties.getSecret() != null) {
+            byte[] secret = properties.getSecret().getBytes(StandardCharsets.UTF_8);
+            if (secret.length < 32) {
+                throw new IllegalArgumentException("gateway.auth.jwt.secret must be at least 32 bytes long");
+            }
+            return new JWSVerificationKeySelector<>(JWSAlgorithm.Family.HMAC_SHA, new ImmutableSecret<>(secret));
+        }
+        if (properties.getJwksUri() == null) {
+            throw new IllegalArgumentException("gateway.auth.jwt needs either a jwks-uri or a secret");
+        }
+        Set<JWSAlgorithm> algorithms = new HashSet<>(JWSAlgorithm.Family.RSA);
+        algorithms.addAll(JWSAlgorithm.Family.EC);
+        return new JWSVerificationKeySelector<>(algorithms, (selector, context) -> {
+            List<JWK> found = selector.select(keys.get());
+            if (found.isEmpty()) {
+                refreshEarly();
+            }
+            return found;
+        });
+    }
+
+    private Disposable every(Duration interval, Mono<Void> task, String purpose) {
+        return Flux.interval(Duration.ZERO, interval)
+                .onBackpressureDrop()
+                .concatMap(tick -> task.onErrorResume(e -> {
+                    log.warn("{} failed, keeping what was loaded before: {}", purpose, e.getMessage());
+                    return Mono.empty();
+                }))
+                .subscribe();
+    }
+
+    private Counter verifications(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("gateway.auth.jwt.verifications")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private long expiry(ZSetOperations.TypedTuple<String> entry) {
+        return entry.getScore() != null ? rememberUntil(entry.getScore().longValue()) : Long.MAX_VALUE;
+    }
+
+    // a token is accepted for the clock skew past its expiry, so its jti is remembered that much longer
+    private long rememberUntil(long expiresAt) {
+        return expiresAt + properties.getClockSkew().toSeconds();
+    }
+}
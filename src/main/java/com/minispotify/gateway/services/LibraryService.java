@@ -0,0 +1,140 @@
+package com.minispotify.gateway.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.minispotify.gateway.config.LibraryProperties;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.server.PathContainer;
+import org.springframework.stereotype.Service;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.StreamSupport;
+
+/**
+ * Builds a user's library in one go: the user's playlists, songs and artists are read in parallel and
+ * songs and artists referenced by bare id are replaced with their details from the song and artist
+ * services. Each part has its own time budget; parts that fail or run out of time are left out (or left
+ * as bare ids) and named in the document's errors instead of failing the whole response.
+ */
+@Service
+@RequiredArgsConstructor
+public class LibraryService {
+
+    private final RouteTable routeTable;
+    private final RouteForwarder routeForwarder;
+    private final ObjectMapper objectMapper;
+    private final LibraryProperties properties;
+
+    public Mono<ObjectNode> library(String userId, HttpHeaders headers, String principal) {
+        Context context = new Context(headers, principal);
+
+        Mono<Part> playlists = part("playlists", path("/users/{userId}/playlists", userId), context);
+        Mono<Part> songs = part("songs", path("/users/{userId}/songs", userId), context)
+                .flatMap(part -> hydrate(part, "/songs/{songId}", context));
+        Mono<Part> artists = part("artists", path("/users/{userId}/artists", userId), context)
+                .flatMap(part -> hydrate(part, "/artists/{artistId}", context));
+
+        return Mono.zip(playlists, songs, artists).map(parts -> {
+            ObjectNode library = objectMapper.createObjectNode();
+            library.put("userId", userId);
+            ObjectNode errors = objectMapper.createObjectNode();
+            for (Part part : new Part[]{parts.getT1(), parts.getT2(), parts.getT3()}) {
+                if (part.value() != null) {
+                    library.set(part.name(), part.value());
+                }
+                part.errors().forEach(errors::put);
+            }
+            library.put("partial", !errors.isEmpty());
+            if (!errors.isEmpty()) {
+                library.set("errors", errors);
+            }
+            return library;
+        });
+    }
+
+    private Mono<Part> part(String name, String path, Context context) {
+        return read(path, context)
+                .map(json -> new Part(name, json, Map.of()))
+                .timeout(properties.getPartTimeout())
+                .onErrorResume(e -> Mono.just(Part.failed(name, e)));
+    }
+
+    /**
+     * Replaces every bare id in the list with the entity it refers to. Ids that cannot be looked up stay
+     * as they are and are reported in the part's errors.
+     */
+    private Mono<Part> hydrate(Part part, String entityTemplate, Context context) {
+        if (!(part.value() instanceof ArrayNode list)) {
+            // failed parts have no value and anything but a list has nothing to hydrate
+            return Mono.just(part);
+        }
+        List<String> ids = StreamSupport.stream(list.spliterator(), false)
+                .filter(JsonNode::isValueNode)
+                .map(JsonNode::asText)
+                .distinct()
+                .toList();
+        if (ids.isEmpty()) {
+            return Mono.just(part);
+        }
+
+        // whatever has been looked up when the budget runs out is used, the rest stays as bare ids
+        return Flux.fromIterable(ids)
+                .flatMap(id -> read(path(entityTemplate, id), context)
+                        .map(entity -> Map.entry(id, entity))
+                        .onErrorResume(e -> Mono.empty()), properties.getHydrationConcurrency())
+                .take(properties.getHydrationTimeout())
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                .map(found -> {
+                    ArrayNode hydrated = objectMapper.createArrayNode();
+                    list.forEach(element -> hydrated.add(element.isValueNode()
+                            ? found.getOrDefault(element.asText(), element)
+                            : element));
+                    int missing = ids.size() - found.size();
+                    Map<String, String> errors = missing == 0
+                            ? Map.of()
+                            : Map.of(part.name(), missing + " of " + ids.size() + " referenced entries could not be loaded");
+                    return new Part(part.name(), hydrated, errors);
+                });
+    }
+
+    // ids come from the client and from upstream documents, a / or ? in one must not change what is read
+    private static String path(String template, String id) {
+        return UriComponentsBuilder.fromPath(template).encode().buildAndExpand(id).getPath();
+    }
+
+    private Mono<JsonNode> read(String path, Context context) {
+        return Mono.justOrEmpty(routeTable.match(HttpMethod.GET, PathContainer.parsePath(path)))
+                .switchIfEmpty(Mono.error(() -> new IllegalStateException("No route serves GET " + path)))
+                .flatMap(match -> routeForwarder.read(match, null, context.headers(), context.principal()))
+                .flatMap(response -> {
+                    if (!response.status().is2xxSuccessful()) {
+                        return Mono.error(new IllegalStateException("upstream answered " + response.status().value()));
+                    }
+                    try {
+                        return Mono.just(objectMapper.readTree(response.body()));
+                    } catch (IOException e) {
+                        return Mono.error(e);
+                    }
+                });
+    }
+
+    private record Context(HttpHeaders headers, String principal) {
+    }
+
+    private record Part(String name, JsonNode value, Map<String, String> errors) {
+        static Part failed(String name, Throwable e) {
+            String reason = e instanceof TimeoutException ? "timed out" : e.getMessage();
+            return new Part(name, null, Map.of(name, reason));
+        }
+    }
+}
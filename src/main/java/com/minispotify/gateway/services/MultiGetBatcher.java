@@ -0,0 +1,95 @@
+package com.minispotify.gateway.services;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Folds concurrent GETs into MGETs. A key asked for while the allowed number of MGETs is already in flight
+ * waits for one of them to return and then goes out together with everything else that queued up meanwhile.
+ * Nothing is held back while redis keeps up, so a lone lookup costs the same single round trip as a GET.
+ */
+class MultiGetBatcher {
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final int maxBatchSize;
+    private final int maxInFlight;
+    private final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final DistributionSummary batchSizes;
+
+    MultiGetBatcher(ReactiveStringRedisTemplate redisTemplate, int maxBatchSize, int maxInFlight,
+                    String name, MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.maxBatchSize = maxBatchSize;
+        this.maxInFlight = maxInFlight;
+        this.batchSizes = DistributionSummary.builder(name + ".batch-size")
+                .description("Keys fetched per MGET")
+                .register(meterRegistry);
+    }
+
+    /**
+     * The value stored at the key, empty when there is none. MGET cannot tell a missing key from an empty
+     * value, so an empty value comes back as no value.
+     */
+    Mono<String> get(String key) {
+        return Mono.create(sink -> {
+            queue.add(new Pending(key, sink));
+            drain();
+        });
+    }
+
+    private void drain() {
+        while (!queue.isEmpty()) {
+            int current = inFlight.get();
+            if (current >= maxInFlight) {
+                // whichever MGET returns next picks the queue up
+                return;
+            }
+            if (!inFlight.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            List<Pending> batch = new ArrayList<>();
+            Pending next;
+            while (batch.size() < maxBatchSize && (next = queue.poll()) != null) {
+                batch.add(next);
+            }
+            if (batch.isEmpty()) {
+                inFlight.decrementAndGet();
+                continue;
+            }
+            send(batch);
+        }
+    }
+
+    private void send(List<Pending> batch) {
+        batchSizes.record(batch.size());
+        redisTemplate.opsForValue().multiGet(batch.stream().map(Pending::key).toList())
+                .doFinally(signal -> {
+                    inFlight.decrementAndGet();
+                    drain();
+                })
+                .subscribe(values -> {
+                    for (int i = 0; i < batch.size(); i++) {
+                        String value = i < values.size() ? values.get(i) : null;
+                        if (value == null || value.isEmpty()) {
+                            batch.get(i).sink().success();
+                        } else {
+                            batch.get(i).sink().success(value);
+                        }
+                    }
+                }, error -> batch.forEach(pending -> pending.sink().error(error)),
+                        () -> batch.forEach(pending -> pending.sink().success()));
+    }
+
+    private record Pending(String key, MonoSink<String> sink) {
+    }
+}
@@ -0,0 +1,387 @@
+package com.minispotify.gateway.services;
+
+import com.minispotify.gateway.config.AsyncWriteProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.ReactiveStreamOperations;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Queues writes to routes with async-writes in redis streams and applies them in the background, so the
+ * client is answered with 202 as soon as the write is stored instead of after the upstream applied it.
+ * Writes are spread over a fixed number of partition streams by principal, and each partition is drained
+ * by one replica at a time holding a lease in redis, so a principal's writes reach the upstream in the
+ * order they were queued. A write is retried with backoff while the upstream fails or turns it away, and
+ * moved to the dead letter stream once the upstream refuses it or it runs out of attempts. Delivery is at
+ * least once: a batch applied by a replica that went away before acknowledging it is applied again by the
+ * next lease holder, which is why only idempotent routes should be queued. The lease is renewed while a
+ * batch is applied, and a replica that loses it stops and leaves the batch unacknowledged to the new holder.
+ * Writes are stored without the client's credentials: they reach the upstream without Authorization or
+ * Cookie headers and identify the caller by the principal they were verified as, in
+ * {@link RouteForwarder#PRINCIPAL_HEADER}.
+ */
+@Slf4j
+@Component
+public class MutationQueue {
+
+    // set on the 202 answer, <partition>-<stream entry id>
+    public static final String ID_HEADER = "X-Gateway-Mutation-Id";
+
+    private static final RedisScript<Long> PARTITION_LEASE =
+            RedisScript.of(new ClassPathResource("scripts/partition-lease.lua"), Long.class);
+    // the lease already keeps other replicas out, so every holder reads as the same consumer and picks up
+    // whatever an earlier holder read but never acknowledged
+    private static final String CONSUMER = "worker";
+    private static final String HEADER_FIELD_PREFIX = "header:";
+    // never written to redis, a queued write is applied on the strength of the token verified when it came in
+    private static final Set<String> CREDENTIAL_HEADERS = Set.of(
+            HttpHeaders.AUTHORIZATION, HttpHeaders.PROXY_AUTHORIZATION, HttpHeaders.COOKIE);
+
+    private final AsyncWriteProperties properties;
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final RouteForwarder routeForwarder;
+    private final RouteTable routeTable;
+    private final String replicaId = UUID.randomUUID().toString();
+    private final Set<Integer> groupsCreated = ConcurrentHashMap.newKeySet();
+    private final Disposable.Composite workers = Disposables.composite();
+    private final AtomicLong depth = new AtomicLong();
+    private final AtomicLong lagMillis = new AtomicLong();
+    private final Counter queued;
+    private final Counter notQueued;
+    private final Counter applied;
+    private final Counter retried;
+    private final Counter rejected;
+    private final Counter failed;
+    private final Timer delay;
+
+    public MutationQueue(AsyncWriteProperties properties,
+                         ReactiveStringRedisTemplate redisTemplate,
+                         RouteForwarder routeForwarder,
+                         RouteTable routeTable,
+                         MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.redisTemplate = redisTemplate;
+        this.routeForwarder = routeForwarder;
+        this.routeTable = routeTable;
+        this.queued = outcomes(meterRegistry, "queued");
+        this.notQueued = outcomes(meterRegistry, "not-queued");
+        this.applied = outcomes(meterRegistry, "applied");
+        this.retried = outcomes(meterRegistry, "retried");
+        this.rejected = outcomes(meterRegistry, "rejected");
+        this.failed = outcomes(meterRegistry, "failed");
+        this.delay = Timer.builder("gateway.mutations.delay")
+                .description("Time from queueing a write until the upstream applied it")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        Gauge.builder("gateway.mutations.queue.depth", depth, AtomicLong::get)
+                .description("Writes queued and not yet applied, across all partitions")
+                .register(meterRegistry);
+        TimeGauge.builder("gateway.mutations.queue.lag", lagMillis, TimeUnit.MILLISECONDS, AtomicLong::get)
+                .description("Age of the oldest write not yet applied")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startWorkers() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        for (int partition = 0; partition < properties.getPartitions(); partition++) {
+            int drained = partition;
+            workers.add(Flux.interval(properties.getPollInterval())
+                    .onBackpressureDrop()
+                    .concatMap(tick -> drain(drained)
+                            .expand(count -> count >= properties.getBatchSize() ? drain(drained) : Mono.empty())
+                            .onErrorResume(e -> {
+                                log.warn("Draining mutation partition {} failed, retrying: {}", drained, e.getMessage());
+                                // the stream may have been dropped along with its group
+                                groupsCreated.remove(drained);
+                                return Mono.empty();
+                            }))
+                    .subscribe());
+        }
+        workers.add(Flux.interval(Duration.ZERO, properties.getMetricsInterval())
+                .onBackpressureDrop()
+                .concatMap(tick -> measure().onErrorResume(e -> Mono.empty()))
+                .subscribe());
+    }
+
+    @PreDestroy
+    public void stopWorkers() {
+        workers.dispose();
+    }
+
+    /**
+     * Whether this request is queued rather than forwarded. A queued write is never forwarded instead, that
+     * could overtake the principal's writes still in the queue: a body over the allowed size is refused
+     * with 413 and a write that cannot be stored with 503.
+     */
+    public boolean queues(ServerHttpRequest request, RouteTable.RouteMatch match) {
+        HttpMethod method = request.getMethod();
+        return properties.isEnabled() && match.route().asyncWrites()
+                && method != HttpMethod.GET && method != HttpMethod.HEAD && method != HttpMethod.OPTIONS;
+    }
+
+    public int maxBodySize() {
+        return (int) properties.getMaxBodySize().toBytes();
+    }
+
+    /**
+     * Stores the write in its principal's partition and returns its id. The headers sent later are the
+     * ones the request would have been forwarded with now, with the principal in place of its credentials.
+     */
+    public Mono<String> enqueue(RouteTable.RouteMatch match, ServerHttpRequest request, byte[] body, String principal) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        fields.put("route", match.route().id());
+        fields.put("method", request.getMethod().name());
+        fields.put("path", match.upstreamPath());
+        if (request.getURI().getRawQuery() != null) {
+            fields.put("query", request.getURI().getRawQuery());
+        }
+        fields.put("principal", principal);
+        HttpHeaders headers = new HttpHeaders();
+        RouteForwarder.copyRequestHeaders(request, headers);
+        headers.remove(HttpHeaders.CONTENT_LENGTH);
+        CREDENTIAL_HEADERS.forEach(headers::remove);
+        // set from the principal field when the write is sent, never taken from the client
+        headers.remove(RouteForwarder.PRINCIPAL_HEADER);
+        // header values cannot contain line breaks, which makes them safe to join on one
+        headers.forEach((name, values) -> fields.put(HEADER_FIELD_PREFIX + name, String.join("\n", values)));
+        if (body.length > 0) {
+            fields.put("body", Base64.getEncoder().encodeToString(body));
+        }
+
+        int partition = Math.floorMod(principal.hashCode(), properties.getPartitions());
+        return streams().add(stream(partition), fields)
+                .map(id -> partition + "-" + id.getValue())
+                .doOnNext(id -> queued.increment())
+                .doOnError(e -> {
+                    notQueued.increment();
+                    log.warn("Could not queue {} {}: {}", fields.get("method"), fields.get("path"), e.getMessage());
+                });
+    }
+
+    /**
+     * Applies the next batch of a partition if this replica holds or gets its lease; returns the number
+     * of writes taken from the stream.
+     */
+    Mono<Integer> drain(int partition) {
+        String stream = stream(partition);
+        return lease(stream)
+                .flatMap(held -> held
+                        ? ensureGroup(partition).then(read(stream))
+                        : Mono.just(List.<MapRecord<String, String, String>>of()))
+                .flatMap(batch -> batch.isEmpty() ? Mono.just(0) : apply(stream, batch).thenReturn(batch.size()));
+    }
+
+    // takes or renews the partition's lease, true while this replica holds it
+    private Mono<Boolean> lease(String stream) {
+        List<String> leaseArgs = List.of(replicaId, String.valueOf(properties.getPartitionLease().toMillis()));
+        return redisTemplate.execute(PARTITION_LEASE, List.of(stream + ":lease"), leaseArgs)
+                .next()
+                .map(held -> held == 1);
+    }
+
+    /**
+     * Refreshes the depth and lag gauges from the lengths and oldest entries of all partitions.
+     */
+    Mono<Void> measure() {
+        long now = System.currentTimeMillis();
+        return Flux.range(0, properties.getPartitions())
+                .concatMap(partition -> Mono.zip(
+                        streams().size(stream(partition)),
+                        streams().range(stream(partition), Range.unbounded(), Limit.limit().count(1))
+                                .next()
+                                .map(oldest -> oldest.getId().getTimestamp())
+                                .defaultIfEmpty(now)))
+                .collectList()
+                .doOnNext(partitions -> {
+                    depth.set(partitions.stream().mapToLong(sizes -> sizes.getT1()).sum());
+                    lagMillis.set(now - partitions.stream().mapToLong(sizes -> sizes.getT2()).min().orElse(now));
+                })
+                .then();
+    }
+
+    private Mono<Void> ensureGroup(int partition) {
+        if (groupsCreated.contains(partition)) {
+            return Mono.empty();
+        }
+        // creates the stream as well when nothing was queued in it yet
+        return streams().createGroup(stream(partition), ReadOffset.from("0"), properties.getGroup())
+                .onErrorResume(MutationQueue::isBusyGroup, e -> Mono.empty())
+                .doOnSuccess(created -> groupsCreated.add(partition))
+                .then();
+    }
+
+    private Mono<List<MapRecord<String, String, String>>> read(String stream) {
+        // writes read before but never acknowledged come first, they were queued before anything new
+        return read(StreamOffset.create(stream, ReadOffset.from("0")))
+                .collectList()
+                .flatMap(pending -> pending.isEmpty()
+                        ? read(StreamOffset.create(stream, ReadOffset.lastConsumed())).collectList()
+                        : Mono.just(pending));
+    }
+
+    // the varargs array holding the single offset is only read, never stored
+    @SuppressWarnings("unchecked")
+    private Flux<MapRecord<String, String, String>> read(StreamOffset<String> offset) {
+        Consumer consumer = Consumer.from(properties.getGroup(), CONSUMER);
+        StreamReadOptions options = StreamReadOptions.empty().count(properties.getBatchSize());
+        return streams().read(consumer, options, offset);
+    }
+
+    private Mono<Void> apply(String stream, List<MapRecord<String, String, String>> batch) {
+        Map<String, List<MapRecord<String, String, String>>> byPrincipal = batch.stream().collect(Collectors.groupingBy(
+                record -> record.getValue().getOrDefault("principal", ""), LinkedHashMap::new, Collectors.toList()));
+        RecordId[] ids = batch.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+        Mono<Void> applied = Flux.fromIterable(byPrincipal.values())
+                .flatMap(writes -> Flux.fromIterable(writes).concatMap(this::apply), properties.getConcurrency())
+                .then();
+        // once the lease is lost another replica reads the same writes, so the batch stops right there
+        Duration renewal = properties.getPartitionLease().dividedBy(3);
+        Mono<Void> leaseLost = Flux.interval(renewal, renewal)
+                .concatMap(tick -> lease(stream))
+                .filter(held -> !held)
+                .next()
+                .flatMap(lost -> Mono.error(new LeaseLostException(stream)));
+        // a failure to dead-letter a write fails the batch, which is then read again instead of acknowledged
+        return Mono.firstWithSignal(applied, leaseLost)
+                .then(lease(stream))
+                .flatMap(held -> held
+                        ? streams().acknowledge(stream, properties.getGroup(), ids).then(streams().delete(stream, ids))
+                        : Mono.error(new LeaseLostException(stream)))
+                .then();
+    }
+
+    private Mono<Void> apply(MapRecord<String, String, String> record) {
+        Map<String, String> fields = record.getValue();
+        Optional<RouteTable.Route> route = routeTable.route(fields.get("route"));
+        if (route.isEmpty()) {
+            return deadLetter(record, "no route " + fields.get("route"), rejected);
+        }
+        HttpHeaders headers = new HttpHeaders();
+        fields.forEach((name, value) -> {
+            if (name.startsWith(HEADER_FIELD_PREFIX)) {
+                headers.addAll(name.substring(HEADER_FIELD_PREFIX.length()), List.of(value.split("\n")));
+            }
+        });
+        // entries carry the principal in a field of their own, only a write to an authenticated route sends it
+        RouteForwarder.identify(headers, route.get().authenticated() ? fields.get("principal") : null);
+        byte[] body = fields.containsKey("body") ? Base64.getDecoder().decode(fields.get("body")) : new byte[0];
+
+        return Mono.defer(() -> routeForwarder.send(route.get(), HttpMethod.valueOf(fields.get("method")),
+                        fields.get("path"), fields.get("query"), headers, body))
+                .flatMap(status -> isTransient(status)
+                        ? Mono.error(new TransientStatusException(status))
+                        : Mono.just(status))
+                .retryWhen(Retry.backoff(Math.max(0, properties.getMaxAttempts() - 1), properties.getRetryBackoff())
+                        .maxBackoff(properties.getMaxRetryBackoff())
+                        .doBeforeRetry(signal -> retried.increment()))
+                .flatMap(status -> {
+                    if (status.isError()) {
+                        return deadLetter(record, "upstream answered " + status.value(), rejected);
+                    }
+                    applied.increment();
+                    delay.record(System.currentTimeMillis() - record.getId().getTimestamp(), TimeUnit.MILLISECONDS);
+                    return Mono.<Void>empty();
+                })
+                .onErrorResume(e -> deadLetter(record, String.valueOf(Exceptions.isRetryExhausted(e) ? e.getCause() : e), failed));
+    }
+
+    private Mono<Void> deadLetter(MapRecord<String, String, String> record, String reason, Counter outcome) {
+        Map<String, String> fields = new LinkedHashMap<>(record.getValue());
+        // writes queued before credentials were left out may still carry them
+        CREDENTIAL_HEADERS.forEach(name -> fields.keySet().removeIf((HEADER_FIELD_PREFIX + name)::equalsIgnoreCase));
+        fields.put("stream", record.getStream());
+        fields.put("id", record.getId().getValue());
+        fields.put("error", reason);
+        return streams().add(properties.getDeadLetterStream(), fields)
+                .flatMap(id -> streams().trim(properties.getDeadLetterStream(), properties.getDeadLetterMaxLength(), true))
+                .doOnSuccess(trimmed -> {
+                    outcome.increment();
+                    log.warn("Gave up on queued {} {}: {}", fields.get("method"), fields.get("path"), reason);
+                })
+                .then();
+    }
+
+    private String stream(int partition) {
+        return properties.getStreamPrefix() + partition;
+    }
+
+    private ReactiveStreamOperations<String, String, String> streams() {
+        return redisTemplate.opsForStream();
+    }
+
+    // worth another attempt later, as opposed to a write the upstream will never take
+    private static boolean isTransient(HttpStatusCode status) {
+        return status.is5xxServerError() || status.value() == 408 || status.value() == 429;
+    }
+
+    private static boolean isBusyGroup(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().contains("BUSYGROUP")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Counter outcomes(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("gateway.mutations")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private static class LeaseLostException extends RuntimeException {
+        LeaseLostException(String stream) {
+            super("lost the lease on " + stream + " while applying a batch", null, false, false);
+        }
+    }
+
+    private static class TransientStatusException extends RuntimeException {
+        TransientStatusException(HttpStatusCode status) {
+            super("upstream answered " + status.value(), null, false, false);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.minispotify.gateway.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.minispotify.gateway.config.RateLimitProperties;
+import com.minispotify.gateway.config.RouteProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token buckets per principal and route, kept in redis so a limit holds across all gateway replicas. Tokens
+ * are taken from redis in batches and handed out locally until the batch is used up or its lease runs out,
+ * so most requests are decided without a round trip, and a principal that ran dry is turned away locally
+ * until its next token is due. When redis does not answer in time requests are let through.
+ */
+@Slf4j
+@Component
+public class RateLimiter {
+
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> TOKEN_BUCKET = RedisScript.of(new ClassPathResource("scripts/token-bucket.lua"), List.class);
+    private static final Decision ALLOWED = new Decision(true, Duration.ZERO);
+    private static final Duration ALLOWANCE_IDLE_TIME = Duration.ofMinutes(1);
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final RateLimitProperties properties;
+    private final MeterRegistry meterRegistry;
+    // by route or endpoint id, those without a limit of their own use the default
+    private final Map<String, RateLimitProperties.Limit> limits = new HashMap<>();
+    private final Cache<String, Allowance> allowances;
+    private final Map<String, Counter> rejections = new ConcurrentHashMap<>();
+    private final Counter redisGrants;
+    private final Counter redisDenials;
+    private final Counter redisFailures;
+
+    public RateLimiter(ReactiveStringRedisTemplate redisTemplate, RateLimitProperties properties,
+                       RouteProperties routeProperties, MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        checkRefill("gateway.rate-limit.default-limit", properties.getDefaultLimit());
+        routeProperties.getRoutes().stream()
+                .filter(route -> route.getRateLimit() != null)
+                .forEach(route -> {
+                    checkRefill("rate-limit of route " + route.getId(), route.getRateLimit());
+                    limits.put(route.getId(), route.getRateLimit());
+                });
+        properties.getEndpoints().forEach((id, limit) -> {
+            checkRefill("gateway.rate-limit.endpoints." + id, limit);
+            limits.put(id, limit);
+        });
+        this.allowances = Caffeine.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .expireAfterAccess(ALLOWANCE_IDLE_TIME)
+                .build();
+        this.redisGrants = redisCalls("granted");
+        this.redisDenials = redisCalls("denied");
+        this.redisFailures = redisCalls("failed");
+    }
+
+    /**
+     * Takes a token from the bucket of {@code principal} on the route, or tells how long until the next one.
+     */
+    public Mono<Decision> acquire(String routeId, String principal) {
+        RateLimitProperties.Limit limit = limits.getOrDefault(routeId, properties.getDefaultLimit());
+        if (!properties.isEnabled() || limit.getCapacity() <= 0) {
+            return Mono.just(ALLOWED);
+        }
+        String key = properties.getKeyPrefix() + routeId + ":" + principal;
+        Allowance allowance = allowances.get(key, k -> new Allowance());
+
+        Decision local = allowance.take(System.nanoTime());
+        if (local != null) {
+            return Mono.just(counted(routeId, local));
+        }
+        int batch = Math.max(1, Math.min(properties.getBatchSize(), limit.getCapacity()));
+        List<String> args = List.of(String.valueOf(limit.getCapacity()), String.valueOf(limit.getRefillPerSecond()), String.valueOf(batch));
+        return redisTemplate.execute(TOKEN_BUCKET, List.of(key), args)
+                .next()
+                .timeout(properties.getRedisTimeout())
+                .map(result -> {
+                    long granted = (Long) result.get(0);
+                    (granted > 0 ? redisGrants : redisDenials).increment();
+                    return allowance.refilled(granted, (Long) result.get(1), System.nanoTime());
+                })
+                .onErrorResume(e -> {
+                    // limits are not enforced while redis is away; a local batch keeps us from waiting on it for every request
+                    redisFailures.increment();
+                    log.debug("Could not take rate limit tokens for {} from redis: {}", key, e.getMessage());
+                    return Mono.just(allowance.refilled(batch, 0, System.nanoTime()));
+                })
+                .map(decision -> counted(routeId, decision));
+    }
+
+    // the bucket script divides by the refill rate, a limit that never refills is capacity 0 instead
+    private static void checkRefill(String name, RateLimitProperties.Limit limit) {
+        if (limit.getCapacity() > 0 && !(limit.getRefillPerSecond() > 0)) {
+            throw new IllegalArgumentException(name + " needs a refill-per-second above 0");
+        }
+    }
+
+    private Decision counted(String routeId, Decision decision) {
+        if (!decision.allowed()) {
+            rejections.computeIfAbsent(routeId, id -> Counter.builder("gateway.rate-limit.rejections")
+                    .tag("route", id)
+                    .register(meterRegistry)).increment();
+        }
+        return decision;
+    }
+
+    private Counter redisCalls(String outcome) {
+        return Counter.builder("gateway.rate-limit.redis.calls")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Whether a request may go on, and if not after how long it is worth trying again.
+     */
+    public record Decision(boolean allowed, Duration retryAfter) {
+
+        // whole seconds, rounded up so a client retrying right on time finds a token
+        public long retryAfterSeconds() {
+            return Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+        }
+    }
+
+    // the tokens of one principal and route that this replica took from redis and has not handed out yet
+    private final class Allowance {
+
+        private long tokens;
+        private long leaseEnd;
+        private long deniedUntil;
+
+        // null when redis has to be asked
+        synchronized Decision take(long now) {
+            if (tokens > 0 && now - leaseEnd < 0) {
+                tokens--;
+                return ALLOWED;
+            }
+            if (now - deniedUntil < 0) {
+                return new Decision(false, Duration.ofNanos(deniedUntil - now));
+            }
+            return null;
+        }
+
+        synchronized Decision refilled(long granted, long retryAfterMillis, long now) {
+            if (granted == 0) {
+                deniedUntil = now + TimeUnit.MILLISECONDS.toNanos(retryAfterMillis);
+                return new Decision(false, Duration.ofMillis(retryAfterMillis));
+            }
+            if (now - leaseEnd >= 0) {
+                tokens = 0;
+            }
+            tokens += granted - 1;
+            leaseEnd = now + properties.getLease().toNanos();
+            return ALLOWED;
+        }
+    }
+}
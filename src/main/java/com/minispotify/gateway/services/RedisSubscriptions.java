@@ -0,0 +1,51 @@
+package com.minispotify.gateway.services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.ReactiveSubscription;
+import org.springframework.data.redis.listener.ReactiveRedisMessageListenerContainer;
+import org.springframework.data.redis.listener.Topic;
+import org.springframework.data.redis.serializer.RedisSerializationContext.SerializationPair;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Long-lived pub/sub subscriptions that survive redis being unavailable at startup or going away later.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RedisSubscriptions {
+
+    private static final SerializationPair<String> STRINGS = SerializationPair.fromSerializer(RedisSerializer.string());
+
+    private final ReactiveRedisConnectionFactory connectionFactory;
+
+    /**
+     * Message bodies published on the given channels and patterns. Whenever the subscription is lost it is
+     * re-established with backoff; callers fall back to whatever they do without notifications until then.
+     */
+    public Flux<String> messages(List<Topic> topics, String purpose) {
+        return channelMessages(topics, purpose).map(ReactiveSubscription.Message::getMessage);
+    }
+
+    /**
+     * Like {@link #messages}, with the channel each message arrived on, which is where keyspace
+     * notifications carry the key.
+     */
+    public Flux<ReactiveSubscription.Message<String, String>> channelMessages(List<Topic> topics, String purpose) {
+        // the container connects as soon as it is created, so it is (re)built inside the retried subscription
+        return Flux.using(
+                        () -> new ReactiveRedisMessageListenerContainer(connectionFactory),
+                        container -> container.receive(topics, STRINGS, STRINGS),
+                        ReactiveRedisMessageListenerContainer::destroyLater)
+                .doOnError(e -> log.warn("Lost redis subscription for {}, retrying: {}", purpose, e.getMessage()))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1)).maxBackoff(Duration.ofSeconds(30)));
+    }
+}
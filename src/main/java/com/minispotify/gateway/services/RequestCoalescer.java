@@ -0,0 +1,56 @@
+package com.minispotify.gateway.services;
+
+import com.minispotify.gateway.config.CoalescingProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight for upstream reads: while a call for a key is in flight, further callers with the same key
+ * wait for its response instead of issuing their own. The shared call keeps running if the caller that
+ * started it goes away, so the others still get the response.
+ */
+@Component
+public class RequestCoalescer {
+
+    private final ConcurrentMap<String, Mono<BufferedResponse>> inFlight = new ConcurrentHashMap<>();
+    private final CoalescingProperties properties;
+    private final Counter leaders;
+    private final Counter followers;
+    private final Counter timeouts;
+
+    public RequestCoalescer(CoalescingProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.leaders = Counter.builder("gateway.coalescing.requests").tag("role", "leader").register(meterRegistry);
+        this.followers = Counter.builder("gateway.coalescing.requests").tag("role", "follower").register(meterRegistry);
+        this.timeouts = Counter.builder("gateway.coalescing.timeouts").register(meterRegistry);
+        Gauge.builder("gateway.coalescing.in-flight", inFlight, ConcurrentMap::size).register(meterRegistry);
+    }
+
+    public Mono<BufferedResponse> execute(String key, Supplier<Mono<BufferedResponse>> call) {
+        return Mono.defer(() -> {
+            AtomicReference<Mono<BufferedResponse>> self = new AtomicReference<>();
+            Mono<BufferedResponse> flight = Mono.defer(call)
+                    .doFinally(signal -> inFlight.remove(key, self.get()))
+                    .share();
+            self.set(flight);
+
+            Mono<BufferedResponse> existing = inFlight.putIfAbsent(key, flight);
+            if (existing == null) {
+                leaders.increment();
+                return flight;
+            }
+            followers.increment();
+            return existing.timeout(properties.getMaxWait())
+                    .doOnError(TimeoutException.class, e -> timeouts.increment());
+        });
+    }
+}
@@ -0,0 +1,290 @@
+package com.minispotify.gateway.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.minispotify.gateway.config.ResponseCacheProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Two-tier cache for GET responses of routes with a cache policy: a bounded in-process tier in front of
+ * redis, which is shared by all gateway replicas. Stale entries are kept for a while so they can be
+ * revalidated against the upstream with If-None-Match / If-Modified-Since instead of being refetched.
+ * Writes invalidate a whole region in redis and, through pub/sub, in every replica's local tier. Each
+ * invalidation starts a new generation of the region, locally and in redis, and entries carry the
+ * generation they were fetched in: a response fetched before an invalidation but stored after it is
+ * dropped instead of bringing the old data back. Responses that vary by request headers other than
+ * Accept-Encoding, which the gateway sets itself, are not cached.
+ */
+@Slf4j
+@Service
+public class ResponseCache {
+
+    public static final String OUTCOME_HEADER = "X-Gateway-Cache";
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final RedisSubscriptions redisSubscriptions;
+    private final ObjectMapper objectMapper;
+    private final ResponseCacheProperties properties;
+    private final Cache<String, CachedResponse> local;
+    // bumped whenever this replica drops a region, whether the write went through it or another replica
+    private final Map<String, AtomicLong> localGenerations = new ConcurrentHashMap<>();
+    private final Counter localHits;
+    private final Counter sharedHits;
+    private final Counter misses;
+    private final Counter revalidations;
+    private Disposable invalidations;
+
+    public ResponseCache(ReactiveStringRedisTemplate redisTemplate,
+                         RedisSubscriptions redisSubscriptions,
+                         ObjectMapper objectMapper,
+                         ResponseCacheProperties properties,
+                         MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.redisSubscriptions = redisSubscriptions;
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+        this.local = Caffeine.newBuilder()
+                .maximumSize(properties.getLocalMaximumSize())
+                .expireAfter(new RetentionExpiry(properties.getStaleRetention()))
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, local, "gateway.responses.local");
+        this.localHits = outcomeCounter(meterRegistry, "local-hit");
+        this.sharedHits = outcomeCounter(meterRegistry, "shared-hit");
+        this.misses = outcomeCounter(meterRegistry, "miss");
+        this.revalidations = outcomeCounter(meterRegistry, "revalidated");
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void subscribeToInvalidations() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        invalidations = redisSubscriptions.messages(List.of(new ChannelTopic(properties.getInvalidationChannel())), "response cache invalidations")
+                .subscribe(this::evictLocalRegion);
+    }
+
+    @PreDestroy
+    public void unsubscribeFromInvalidations() {
+        if (invalidations != null) {
+            invalidations.dispose();
+        }
+    }
+
+    /**
+     * Serves {@code key} from the cache, going to the upstream through {@code fetch} when it is missing or
+     * stale. {@code fetch} is given the conditional headers to send when a stale entry can be revalidated.
+     */
+    public Mono<Lookup> get(String key, RouteTable.CachePolicy policy, Function<HttpHeaders, Mono<BufferedResponse>> fetch) {
+        if (!properties.isEnabled()) {
+            return fetch.apply(HttpHeaders.EMPTY).map(response -> new Lookup(CachedResponse.of(response, policy.ttl(), now(), 0), "BYPASS"));
+        }
+        String cacheKey = properties.getKeyPrefix() + policy.region() + ":" + key;
+        long localGeneration = localGeneration(policy.region()).get();
+
+        CachedResponse cached = local.getIfPresent(cacheKey);
+        if (cached != null && cached.isFresh(now())) {
+            localHits.increment();
+            return Mono.just(new Lookup(cached, "HIT"));
+        }
+
+        return readShared(cacheKey, policy.region()).flatMap(shared -> {
+            CachedResponse entry = shared.entry();
+            if (entry != null) {
+                local.put(cacheKey, entry);
+            } else if (cached != null && cached.generation() >= shared.generation()) {
+                entry = cached;
+            }
+            if (entry != null && entry.isFresh(now())) {
+                sharedHits.increment();
+                return Mono.just(new Lookup(entry, "HIT"));
+            }
+            Generations generations = new Generations(localGeneration, shared.generation());
+            return refresh(cacheKey, policy, entry, generations, fetch);
+        });
+    }
+
+    /**
+     * Drops every entry of the region here, in redis and, through the invalidation channel, in the other replicas.
+     */
+    public Mono<Void> evictRegion(String region) {
+        if (!properties.isEnabled()) {
+            return Mono.empty();
+        }
+        evictLocalRegion(region);
+        String index = regionIndex(region);
+        return redisTemplate.opsForValue().increment(regionGeneration(region))
+                .thenMany(redisTemplate.opsForSet().members(index))
+                .collectList()
+                .flatMap(keys -> {
+                    keys.add(index);
+                    return redisTemplate.delete(keys.toArray(String[]::new));
+                })
+                .then(redisTemplate.convertAndSend(properties.getInvalidationChannel(), region))
+                .onErrorResume(e -> {
+                    log.warn("Could not invalidate response cache region {} in redis: {}", region, e.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private Mono<Lookup> refresh(String cacheKey, RouteTable.CachePolicy policy, CachedResponse stale,
+                                 Generations generations, Function<HttpHeaders, Mono<BufferedResponse>> fetch) {
+        HttpHeaders conditional = new HttpHeaders();
+        if (stale != null && stale.canRevalidate()) {
+            if (stale.upstreamEtag() != null) {
+                conditional.setIfNoneMatch(stale.upstreamEtag());
+            }
+            if (stale.lastModified() != null) {
+                conditional.set(HttpHeaders.IF_MODIFIED_SINCE, stale.lastModified());
+            }
+        }
+
+        return fetch.apply(conditional).flatMap(response -> {
+            if (response.status().value() == HttpStatus.NOT_MODIFIED.value() && !conditional.isEmpty()) {
+                revalidations.increment();
+                CachedResponse refreshed = stale.refreshed(response.headers(), policy.ttl(), now(), generations.shared());
+                store(cacheKey, policy, refreshed, generations);
+                return Mono.just(new Lookup(refreshed, "REVALIDATED"));
+            }
+
+            misses.increment();
+            CachedResponse fetched = CachedResponse.of(response, policy.ttl(), now(), generations.shared());
+            if (!isCacheable(response)) {
+                return Mono.just(new Lookup(fetched, "MISS"));
+            }
+            store(cacheKey, policy, fetched, generations);
+            return Mono.just(new Lookup(fetched, "MISS"));
+        });
+    }
+
+    private boolean isCacheable(BufferedResponse response) {
+        String cacheControl = response.headers().getCacheControl();
+        return response.status().value() == HttpStatus.OK.value()
+                && response.body().length <= properties.getMaxEntrySize().toBytes()
+                && !response.headers().containsKey(HttpHeaders.SET_COOKIE)
+                && response.headers().getVary().stream().allMatch(HttpHeaders.ACCEPT_ENCODING::equalsIgnoreCase)
+                && (cacheControl == null || !(cacheControl.contains("no-store") || cacheControl.contains("private")));
+    }
+
+    // the client does not wait for redis: the entry is in the local tier at once and in the shared one
+    // a round trip later, the three commands issued together so the connection pipelines them
+    private void store(String cacheKey, RouteTable.CachePolicy policy, CachedResponse entry, Generations generations) {
+        if (localGeneration(policy.region()).get() != generations.local()) {
+            // invalidated while the upstream was asked, what it answered may already be out of date; in
+            // redis the entry's generation keeps other replicas from using it if this one is not told in time
+            log.debug("Not caching {}, its region was invalidated while it was fetched", cacheKey);
+            return;
+        }
+        local.put(cacheKey, entry);
+        Duration retention = policy.ttl().plus(properties.getStaleRetention());
+        String index = regionIndex(policy.region());
+        Mono.fromCallable(() -> objectMapper.writeValueAsString(entry))
+                .flatMap(json -> Mono.when(
+                        redisTemplate.opsForValue().set(cacheKey, json, retention),
+                        redisTemplate.opsForSet().add(index, cacheKey),
+                        redisTemplate.expire(index, retention)))
+                .subscribe(null, e -> log.warn("Could not store {} in the shared response cache: {}", cacheKey, e.getMessage()));
+    }
+
+    // the entry and its region's current generation in one round trip; entries of older generations are left out
+    private Mono<Shared> readShared(String cacheKey, String region) {
+        return redisTemplate.opsForValue().multiGet(List.of(cacheKey, regionGeneration(region)))
+                .map(values -> {
+                    long generation = values.get(1) != null ? Long.parseLong(values.get(1)) : 0;
+                    if (values.get(0) == null) {
+                        return new Shared(null, generation);
+                    }
+                    try {
+                        CachedResponse entry = objectMapper.readValue(values.get(0), CachedResponse.class);
+                        return new Shared(entry.generation() >= generation ? entry : null, generation);
+                    } catch (JsonProcessingException e) {
+                        log.warn("Dropping unreadable shared response cache entry {}: {}", cacheKey, e.getMessage());
+                        return new Shared(null, generation);
+                    }
+                })
+                .onErrorResume(e -> Mono.just(new Shared(null, 0)));
+    }
+
+    private void evictLocalRegion(String region) {
+        localGeneration(region).incrementAndGet();
+        String prefix = properties.getKeyPrefix() + region + ":";
+        local.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    private AtomicLong localGeneration(String region) {
+        return localGenerations.computeIfAbsent(region, r -> new AtomicLong());
+    }
+
+    private String regionGeneration(String region) {
+        return properties.getKeyPrefix() + "generations:" + region;
+    }
+
+    private String regionIndex(String region) {
+        return properties.getKeyPrefix() + "regions:" + region;
+    }
+
+    private static Counter outcomeCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("gateway.responses.lookups")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private static long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * A response to send to the client and how the cache produced it (HIT, MISS, REVALIDATED or BYPASS).
+     */
+    public record Lookup(CachedResponse response, String outcome) {
+    }
+
+    private record Shared(CachedResponse entry, long generation) {
+    }
+
+    private record Generations(long local, long shared) {
+    }
+
+    private record RetentionExpiry(Duration staleRetention) implements Expiry<String, CachedResponse> {
+        @Override
+        public long expireAfterCreate(String key, CachedResponse entry, long currentTime) {
+            long remaining = entry.storedAt() + entry.ttlMillis() - System.currentTimeMillis();
+            return Duration.ofMillis(Math.max(remaining, 0)).plus(staleRetention).toNanos();
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, CachedResponse entry, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, entry, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, CachedResponse entry, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package com.minispotify.gateway.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.minispotify.gateway.config.CompressionProperties;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Gzip on both sides of the gateway. Responses the upstream left unencoded are compressed for clients that
+ * accept gzip, once they are large enough and of a compressible type; whatever encoding an upstream chose
+ * itself is passed through untouched. Buffered reads ask upstreams for gzip and are inflated here, since
+ * they are cached and parsed as plain bodies. Deflaters and inflaters are pooled rather than allocated
+ * per response, and the gzipped variant of a cached body is kept so it is only compressed once.
+ */
+@Component
+public class ResponseCompression {
+
+    private static final String GZIP = "gzip";
+    // magic, deflate, no flags, no mtime, no extra flags, unknown OS
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int CHUNK_SIZE = 8192;
+
+    private final CompressionProperties properties;
+    private final List<MediaType> mimeTypes;
+    private final Pool<Deflater> deflaters;
+    private final Pool<Inflater> inflaters;
+    private final Cache<String, byte[]> variants;
+
+    public ResponseCompression(CompressionProperties properties) {
+        this.properties = properties;
+        this.mimeTypes = properties.getMimeTypes().stream().map(MediaType::parseMediaType).toList();
+        this.deflaters = new Pool<>(properties.getPoolSize(), () -> new Deflater(properties.getLevel(), true),
+                Deflater::reset, Deflater::end);
+        this.inflaters = new Pool<>(properties.getPoolSize(), () -> new Inflater(true), Inflater::reset, Inflater::end);
+        this.variants = Caffeine.newBuilder()
+                .maximumWeight(properties.getVariantCacheSize().toBytes())
+                .weigher((String key, byte[] body) -> body.length)
+                .build();
+    }
+
+    public boolean requestsGzipFromUpstreams() {
+        return properties.isEnabled() && properties.isUpstreamGzip();
+    }
+
+    /**
+     * Whether a response with these headers is worth gzipping; {@code length} is -1 when not known up front.
+     */
+    public boolean isCompressible(HttpHeaders responseHeaders, long length) {
+        if (!properties.isEnabled() || isEncoded(responseHeaders)) {
+            return false;
+        }
+        if (length >= 0 && length < properties.getMinResponseSize().toBytes()) {
+            return false;
+        }
+        MediaType contentType;
+        try {
+            contentType = responseHeaders.getContentType();
+        } catch (InvalidMediaTypeException e) {
+            return false;
+        }
+        return contentType != null && mimeTypes.stream().anyMatch(type -> type.includes(contentType));
+    }
+
+    public boolean isEncoded(HttpHeaders headers) {
+        String encoding = headers.getFirst(HttpHeaders.CONTENT_ENCODING);
+        return encoding != null && !encoding.equalsIgnoreCase("identity");
+    }
+
+    /**
+     * Whether the Accept-Encoding of a request allows gzip, honouring q=0 and the * wildcard.
+     */
+    public boolean acceptsGzip(HttpHeaders requestHeaders) {
+        Double gzip = null;
+        Double any = null;
+        for (String header : requestHeaders.getOrEmpty(HttpHeaders.ACCEPT_ENCODING)) {
+            for (String coding : header.split(",")) {
+                String[] parameters = coding.split(";");
+                String name = parameters[0].trim().toLowerCase(Locale.ROOT);
+                double quality = quality(parameters);
+                if (name.equals(GZIP) || name.equals("x-gzip")) {
+                    gzip = quality;
+                } else if (name.equals("*")) {
+                    any = quality;
+                }
+            }
+        }
+        return gzip != null ? gzip > 0 : any != null && any > 0;
+    }
+
+    /**
+     * Marks a compressible response as depending on Accept-Encoding, whether or not this client gets it gzipped.
+     */
+    public void addVary(HttpHeaders headers) {
+        if (headers.getVary().stream().noneMatch(HttpHeaders.ACCEPT_ENCODING::equalsIgnoreCase)) {
+            headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+    }
+
+    /**
+     * Sets the headers of a gzipped response; {@code length} is -1 for a streamed body. A strong ETag is
+     * weakened, since the gzipped bytes are no longer the ones it was issued for.
+     */
+    public void markGzipped(HttpHeaders headers, long length) {
+        headers.set(HttpHeaders.CONTENT_ENCODING, GZIP);
+        if (length >= 0) {
+            headers.setContentLength(length);
+        } else {
+            headers.remove(HttpHeaders.CONTENT_LENGTH);
+        }
+        String etag = headers.getETag();
+        if (etag != null && !etag.startsWith("W/")) {
+            headers.setETag("W/" + etag);
+        }
+    }
+
+    public byte[] gzip(byte[] body, RouteMetrics.RouteMeters meters) {
+        long start = System.nanoTime();
+        Deflater deflater = deflaters.borrow();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + GZIP_HEADER.length + 8);
+            out.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+            deflater.setInput(body);
+            deflater.finish();
+            byte[] chunk = new byte[CHUNK_SIZE];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            writeTrailer(out, crc.getValue(), body.length);
+            meters.compressed(body.length, out.size(), System.nanoTime() - start);
+            return out.toByteArray();
+        } finally {
+            deflaters.release(deflater);
+        }
+    }
+
+    /**
+     * The gzipped form of a cached body, compressed on first use. {@code key} has to change whenever the
+     * body does, the cache key of the resource plus its ETag for instance.
+     */
+    public byte[] gzipVariant(String key, byte[] body, RouteMetrics.RouteMeters meters) {
+        byte[] variant = variants.getIfPresent(key);
+        if (variant != null) {
+            meters.servedCompressedVariant();
+            return variant;
+        }
+        variant = gzip(body, meters);
+        variants.put(key, variant);
+        return variant;
+    }
+
+    /**
+     * Gzips a streamed body, flushing after every buffer so nothing is held back from the client.
+     */
+    public Flux<DataBuffer> gzip(Flux<DataBuffer> body, DataBufferFactory bufferFactory, RouteMetrics.RouteMeters meters) {
+        return Flux.using(() -> new GzipStream(bufferFactory, meters),
+                stream -> body.map(stream::compress)
+                        .concatWith(Mono.fromSupplier(stream::finish))
+                        .doOnDiscard(DataBuffer.class, DataBufferUtils::release),
+                GzipStream::release);
+    }
+
+    public byte[] gunzip(byte[] body, RouteMetrics.RouteMeters meters) throws ZipException {
+        long start = System.nanoTime();
+        int offset = headerLength(body);
+        Inflater inflater = inflaters.borrow();
+        try {
+            inflater.setInput(body, offset, body.length - offset);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 4);
+            byte[] chunk = new byte[CHUNK_SIZE];
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(chunk);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new ZipException("Truncated gzip body");
+                }
+                out.write(chunk, 0, inflated);
+                if (out.size() > properties.getMaxInflatedSize().toBytes()) {
+                    throw new ZipException("Gzip body inflates to more than " + properties.getMaxInflatedSize());
+                }
+            }
+            meters.decompressed(System.nanoTime() - start);
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new ZipException("Corrupt gzip body: " + e.getMessage());
+        } finally {
+            inflaters.release(inflater);
+        }
+    }
+
+    private static double quality(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            String parameter = parameters[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    // RFC 1952 section 2.3
+    private static int headerLength(byte[] body) throws ZipException {
+        if (body.length < 18 || body[0] != GZIP_HEADER[0] || body[1] != GZIP_HEADER[1] || body[2] != Deflater.DEFLATED) {
+            throw new ZipException("Not a gzip body");
+        }
+        try {
+            int flags = body[3];
+            int position = 10;
+            if ((flags & 4) != 0) {
+                position += 2 + ((body[position] & 0xff) | (body[position + 1] & 0xff) << 8);
+            }
+            if ((flags & 8) != 0) {
+                while (body[position++] != 0) {
+                    // file name
+                }
+            }
+            if ((flags & 16) != 0) {
+                while (body[position++] != 0) {
+                    // comment
+                }
+            }
+            if ((flags & 2) != 0) {
+                position += 2;
+            }
+            return position;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new ZipException("Truncated gzip header");
+        }
+    }
+
+    private static void writeTrailer(ByteArrayOutputStream out, long crc, long size) {
+        for (long value : new long[]{crc, size}) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                out.write((int) (value >>> shift) & 0xff);
+            }
+        }
+    }
+
+    /**
+     * One streamed body being compressed. Its deflater goes back to the pool when the body ends or the
+     * exchange is cancelled; the lock keeps a cancellation from returning it while a buffer is still
+     * being compressed on another thread.
+     */
+    private final class GzipStream {
+
+        private final DataBufferFactory bufferFactory;
+        private final RouteMetrics.RouteMeters meters;
+        private final Deflater deflater = deflaters.borrow();
+        private final CRC32 crc = new CRC32();
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+        private boolean headerWritten;
+        private boolean released;
+        private long bytesIn;
+        private long bytesOut;
+        private long nanos;
+
+        GzipStream(DataBufferFactory bufferFactory, RouteMetrics.RouteMeters meters) {
+            this.bufferFactory = bufferFactory;
+            this.meters = meters;
+        }
+
+        synchronized DataBuffer compress(DataBuffer buffer) {
+            try {
+                if (released) {
+                    return bufferFactory.allocateBuffer(0);
+                }
+                long start = System.nanoTime();
+                byte[] input = new byte[buffer.readableByteCount()];
+                buffer.read(input);
+                crc.update(input);
+                bytesIn += input.length;
+                ByteArrayOutputStream out = start(input.length / 2);
+                deflater.setInput(input);
+                int deflated;
+                do {
+                    deflated = deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH);
+                    out.write(chunk, 0, deflated);
+                } while (deflated == chunk.length);
+                return emitted(out, start);
+            } finally {
+                DataBufferUtils.release(buffer);
+            }
+        }
+
+        synchronized DataBuffer finish() {
+            if (released) {
+                return bufferFactory.allocateBuffer(0);
+            }
+            long start = System.nanoTime();
+            ByteArrayOutputStream out = start(0);
+            deflater.finish();
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            writeTrailer(out, crc.getValue(), bytesIn);
+            DataBuffer last = emitted(out, start);
+            meters.compressed(bytesIn, bytesOut, nanos);
+            return last;
+        }
+
+        synchronized void release() {
+            if (!released) {
+                released = true;
+                deflaters.release(deflater);
+            }
+        }
+
+        private ByteArrayOutputStream start(int expectedSize) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(expectedSize + GZIP_HEADER.length + 8);
+            if (!headerWritten) {
+                out.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+                headerWritten = true;
+            }
+            return out;
+        }
+
+        private DataBuffer emitted(ByteArrayOutputStream out, long start) {
+            nanos += System.nanoTime() - start;
+            bytesOut += out.size();
+            return bufferFactory.wrap(out.toByteArray());
+        }
+    }
+
+    /**
+     * Keeps up to {@code size} idle instances; deflaters and inflaters hold native memory until ended, so
+     * the ones that do not fit are ended right away instead of being left to the garbage collector.
+     */
+    private static final class Pool<T> {
+
+        private final BlockingQueue<T> idle;
+        private final Supplier<T> factory;
+        private final Consumer<T> reset;
+        private final Consumer<T> end;
+
+        Pool(int size, Supplier<T> factory, Consumer<T> reset, Consumer<T> end) {
+            this.idle = new ArrayBlockingQueue<>(Math.max(1, size));
+            this.factory = factory;
+            this.reset = reset;
+            this.end = end;
+        }
+
+        T borrow() {
+            T instance = idle.poll();
+            return instance != null ? instance : factory.get();
+        }
+
+        void release(T instance) {
+            reset.accept(instance);
+            if (!idle.offer(instance)) {
+                end.accept(instance);
+            }
+        }
+    }
+}
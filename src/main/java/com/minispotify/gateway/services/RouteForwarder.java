@@ -0,0 +1,456 @@
+package com.minispotify.gateway.services;
+
+import com.minispotify.gateway.config.RouteProperties;
+import io.netty.handler.timeout.ReadTimeoutException;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.zip.ZipException;
+
+/**
+ * Streams a matched request to its upstream and the upstream response back to the client. Bodies are
+ * passed along as the netty buffers they arrive in and are never collected into memory, except for GETs
+ * on routes with a cache ttl or coalescing, which go through the {@link ResponseCache} or the
+ * {@link RequestCoalescer} and need the whole body. Unencoded responses are gzipped on the way out for
+ * clients that accept it, see {@link ResponseCompression}. Every call goes to the instance of its upstream
+ * the {@link UpstreamBalancer} chooses; GETs read whole may be hedged to a second instance.
+ */
+@Component
+@RequiredArgsConstructor
+public class RouteForwarder {
+
+    // headers that describe a single connection and must not be relayed across the proxy (RFC 9110 section 7.6.1)
+    private static final Set<String> HOP_BY_HOP_HEADERS = Set.of(
+            "connection", "keep-alive", "proxy-authenticate", "proxy-authorization", "proxy-connection",
+            "te", "trailer", "transfer-encoding", "upgrade", "host");
+
+    // set by the controller to whatever the token verified as, scopes PRINCIPAL coalescing
+    public static final String PRINCIPAL_ATTRIBUTE = RouteForwarder.class.getName() + ".principal";
+    // who an authenticated request was verified as, for the upstream to trust; only ever set by the gateway,
+    // a copy sent by the client is dropped
+    public static final String PRINCIPAL_HEADER = "X-Gateway-Principal";
+
+    private final UpstreamClients upstreamClients;
+    private final UpstreamGuards upstreamGuards;
+    private final RouteMetrics routeMetrics;
+    private final ResponseCache responseCache;
+    private final RequestCoalescer requestCoalescer;
+    private final ResponseCompression compression;
+
+    public Mono<Void> forward(ServerWebExchange exchange, RouteTable.RouteMatch match) {
+        ServerHttpResponse response = exchange.getResponse();
+        RouteTable.CachePolicy cachePolicy = match.route().cache();
+
+        boolean isGet = exchange.getRequest().getMethod() == HttpMethod.GET;
+
+        Mono<Void> forwarded;
+        if (isGet && cachePolicy != null && cachePolicy.cachesReads()) {
+            forwarded = forwardCached(exchange, match, cachePolicy);
+        } else if (isGet && match.route().coalescing() != RouteProperties.Coalescing.NONE) {
+            forwarded = forwardCoalesced(exchange, match);
+        } else {
+            forwarded = stream(exchange, match);
+        }
+        // the reason is written as a body: an empty response completed while the request is still being
+        // read can leave a keep-alive connection without an answer to its next request
+        return forwarded.onErrorResume(e -> !response.isCommitted(), e -> {
+            HttpStatus status = errorStatus(e);
+            response.setStatusCode(status);
+            byte[] body = status.getReasonPhrase().getBytes(StandardCharsets.UTF_8);
+            return response.writeWith(Mono.just(response.bufferFactory().wrap(body)));
+        });
+    }
+
+    private Mono<Void> stream(ServerWebExchange exchange, RouteTable.RouteMatch match) {
+        ServerHttpRequest request = exchange.getRequest();
+        ServerHttpResponse response = exchange.getResponse();
+        String upstream = match.route().upstream();
+        // a successful write through a cached route makes everything cached for its region stale
+        String invalidatedRegion = match.route().cache() != null && request.getMethod() != HttpMethod.GET
+                ? match.route().cache().region()
+                : null;
+
+        UpstreamBalancer.Instance instance = upstreamClients.balancer(upstream).choose(null);
+        WebClient.RequestBodySpec upstreamRequest = upstreamClients.get(upstream)
+                .method(request.getMethod())
+                .uri(upstreamUri(instance, match.upstreamPath(), request.getURI().getRawQuery()))
+                .headers(headers -> {
+                    copyRequestHeaders(request, headers);
+                    identify(headers, exchange.getAttributeOrDefault(PRINCIPAL_ATTRIBUTE, ""));
+                });
+        if (hasBody(request.getHeaders())) {
+            upstreamRequest.body(BodyInserters.fromDataBuffers(request.getBody()));
+        }
+
+        RouteMetrics.RouteMeters meters = routeMetrics.meters(match.route());
+        return upstreamGuards.get(upstream).call(instance, call -> {
+            long requested = System.nanoTime();
+            return upstreamRequest.exchangeToMono(upstreamResponse -> {
+                call.responded(upstreamResponse.statusCode());
+                long responded = meters.upstreamResponded(requested, upstreamResponse.statusCode());
+                response.setStatusCode(upstreamResponse.statusCode());
+                copyHeaders(upstreamResponse.headers().asHttpHeaders(), response.getHeaders());
+                Mono<Void> invalidation = invalidatedRegion != null && upstreamResponse.statusCode().is2xxSuccessful()
+                        ? responseCache.evictRegion(invalidatedRegion)
+                        : Mono.empty();
+                Flux<DataBuffer> body = upstreamResponse.bodyToFlux(DataBuffer.class);
+                HttpHeaders headers = response.getHeaders();
+                if (compression.isEncoded(headers)) {
+                    meters.passedThroughEncoded();
+                } else if (compressible(exchange, upstreamResponse.statusCode(), headers.getContentLength())) {
+                    compression.addVary(headers);
+                    if (compression.acceptsGzip(request.getHeaders())) {
+                        compression.markGzipped(headers, -1);
+                        body = compression.gzip(body, response.bufferFactory(), meters);
+                    }
+                }
+                // buffers dropped on their way out, when the client goes away or the copy fails, still go back to netty
+                return invalidation.then(response.writeWith(body.doOnDiscard(DataBuffer.class, DataBufferUtils::release)))
+                        .doOnSuccess(done -> meters.bodyCopied(responded));
+            });
+        });
+    }
+
+    /**
+     * Sends a write taken from the {@link MutationQueue} to the route's upstream and returns the status it
+     * answered with; the response body is dropped. {@code headers} are sent as they are, they were copied
+     * from the client request when the write was queued and carry the principal it was verified as. A successful write invalidates the route's cache
+     * region just like a forwarded one.
+     */
+    public Mono<HttpStatusCode> send(RouteTable.Route route, HttpMethod method, String upstreamPath, String rawQuery,
+                                     HttpHeaders headers, byte[] body) {
+        UpstreamBalancer.Instance instance = upstreamClients.balancer(route.upstream()).choose(null);
+        WebClient.RequestBodySpec upstreamRequest = upstreamClients.get(route.upstream())
+                .method(method)
+                .uri(upstreamUri(instance, upstreamPath, rawQuery))
+                .headers(to -> to.addAll(headers));
+        if (body.length > 0) {
+            upstreamRequest.bodyValue(body);
+        }
+
+        RouteMetrics.RouteMeters meters = routeMetrics.meters(route);
+        return upstreamGuards.get(route.upstream()).<HttpStatusCode>call(instance, call -> {
+            long requested = System.nanoTime();
+            return upstreamRequest.exchangeToMono(upstreamResponse -> {
+                call.responded(upstreamResponse.statusCode());
+                meters.upstreamResponded(requested, upstreamResponse.statusCode());
+                return upstreamResponse.releaseBody().thenReturn(upstreamResponse.statusCode());
+            });
+        }).flatMap(status -> route.cache() != null && status.is2xxSuccessful()
+                ? responseCache.evictRegion(route.cache().region()).thenReturn(status)
+                : Mono.just(status));
+    }
+
+    /**
+     * Reads a route on the gateway's own behalf, through the response cache and coalescing exactly like a
+     * client GET for it would be, and counted in the route's metrics like one. Not rate limited: the batch
+     * or library request it is made for has been charged once for all of its reads.
+     */
+    public Mono<BufferedResponse> read(RouteTable.RouteMatch match, String rawQuery, HttpHeaders headers, String principal) {
+        Read read = new Read(match, rawQuery, to -> {
+            copyHeaders(headers, to);
+            identify(to, principal);
+        }, principal);
+        RouteTable.CachePolicy cachePolicy = match.route().cache();
+        RouteMetrics.RouteMeters meters = routeMetrics.meters(match.route());
+        return Mono.defer(() -> {
+            long started = meters.started();
+            Mono<BufferedResponse> response = cachePolicy != null && cachePolicy.cachesReads()
+                    ? responseCache.get(read.resource(), cachePolicy, conditional -> coalesced(read, conditional))
+                            .map(lookup -> lookup.response().toBufferedResponse())
+                    : coalesced(read, HttpHeaders.EMPTY);
+            // recorded before the value moves on, so the batch answering with it is already counted
+            return response.doOnTerminate(() -> meters.finished(started))
+                    .doOnCancel(() -> meters.finished(started));
+        });
+    }
+
+    private Mono<Void> forwardCached(ServerWebExchange exchange, RouteTable.RouteMatch match, RouteTable.CachePolicy cachePolicy) {
+        Read read = read(exchange, match);
+        return responseCache.get(read.resource(), cachePolicy, conditional -> coalesced(read, conditional))
+                .flatMap(lookup -> writeCached(exchange, match, read.resource(), lookup));
+    }
+
+    private Mono<Void> forwardCoalesced(ServerWebExchange exchange, RouteTable.RouteMatch match) {
+        return coalesced(read(exchange, match), HttpHeaders.EMPTY)
+                .flatMap(buffered -> writeBuffered(exchange, match, buffered));
+    }
+
+    private Mono<BufferedResponse> coalesced(Read read, HttpHeaders conditional) {
+        RouteProperties.Coalescing coalescing = read.match().route().coalescing();
+        if (coalescing == RouteProperties.Coalescing.NONE) {
+            return exchangeBuffered(read, conditional);
+        }
+        String scope = coalescing == RouteProperties.Coalescing.PRINCIPAL ? read.principal() : "*";
+        String key = "GET " + read.match().route().upstream() + read.resource() + " " + scope
+                + " " + conditional.getIfNoneMatch() + " " + conditional.getFirst(HttpHeaders.IF_MODIFIED_SINCE);
+        return requestCoalescer.execute(key, () -> exchangeBuffered(read, conditional));
+    }
+
+    /**
+     * Fetches the whole upstream response for a GET. The client's own validators and encodings are not
+     * forwarded: what comes back is stored for every client, so it has to be a complete identity-encoded body.
+     * Upstreams may still be asked for gzip, which is inflated here before anything else sees the body.
+     * When the upstream hedges, a GET the chosen instance is slow to answer is sent to another instance as
+     * well and whichever answers first is used; the other call is cancelled. Only the call whose answer is
+     * used counts in the route's metrics.
+     */
+    private Mono<BufferedResponse> exchangeBuffered(Read read, HttpHeaders conditional) {
+        UpstreamBalancer balancer = upstreamClients.balancer(read.match().route().upstream());
+        RouteMetrics.RouteMeters meters = routeMetrics.meters(read.match().route());
+        UpstreamBalancer.Instance primary = balancer.choose(null);
+        Duration hedgeDelay = balancer.hedgeDelay();
+        Mono<Attempt> attempt = hedgeDelay == null
+                ? attempt(read, conditional, primary)
+                : hedged(read, conditional, balancer, primary, hedgeDelay);
+        return attempt.flatMap(used -> Mono.fromCallable(() -> buffered(used, meters)));
+    }
+
+    private Mono<Attempt> hedged(Read read, HttpHeaders conditional, UpstreamBalancer balancer,
+                                 UpstreamBalancer.Instance primary, Duration hedgeDelay) {
+        return Mono.defer(() -> {
+            AtomicReference<Throwable> primaryError = new AtomicReference<>();
+            Sinks.One<Boolean> primaryFailed = Sinks.one();
+            Mono<Attempt> first = attempt(read, conditional, primary).doOnError(e -> {
+                primaryError.set(e);
+                primaryFailed.tryEmitValue(true);
+            });
+            // not sent once the first call failed, but once sent it may still answer after the first one failed
+            Mono<Attempt> hedge = Mono.delay(hedgeDelay)
+                    .takeUntilOther(primaryFailed.asMono())
+                    .filter(tick -> balancer.tryHedge())
+                    .flatMap(tick -> attempt(read, conditional, balancer.choose(primary)))
+                    .doOnNext(used -> balancer.hedgeWon());
+            // fails only when neither call answered, with the first call's error
+            return Mono.firstWithValue(first, hedge)
+                    .onErrorMap(e -> primaryError.get() != null ? primaryError.get() : e);
+        });
+    }
+
+    private Mono<Attempt> attempt(Read read, HttpHeaders conditional, UpstreamBalancer.Instance instance) {
+        String upstream = read.match().route().upstream();
+        return upstreamGuards.get(upstream).call(instance, call -> {
+            long requested = System.nanoTime();
+            return upstreamClients.get(upstream)
+                    .get()
+                    .uri(upstreamUri(instance, read.match().upstreamPath(), read.rawQuery()))
+                    .headers(headers -> {
+                        read.headers().accept(headers);
+                        headers.remove(HttpHeaders.ACCEPT_ENCODING);
+                        if (compression.requestsGzipFromUpstreams()) {
+                            headers.set(HttpHeaders.ACCEPT_ENCODING, "gzip");
+                        }
+                        headers.remove(HttpHeaders.IF_NONE_MATCH);
+                        headers.remove(HttpHeaders.IF_MODIFIED_SINCE);
+                        headers.addAll(conditional);
+                    })
+                    .exchangeToMono(upstreamResponse -> {
+                        call.responded(upstreamResponse.statusCode());
+                        long responded = System.nanoTime();
+                        return upstreamResponse.bodyToMono(byte[].class)
+                                .defaultIfEmpty(new byte[0])
+                                .map(body -> {
+                                    HttpHeaders headers = new HttpHeaders();
+                                    copyHeaders(upstreamResponse.headers().asHttpHeaders(), headers);
+                                    return new Attempt(upstreamResponse.statusCode(), headers, body, requested, responded,
+                                            System.nanoTime());
+                                });
+                    });
+        });
+    }
+
+    private BufferedResponse buffered(Attempt attempt, RouteMetrics.RouteMeters meters) throws ZipException {
+        meters.upstreamCalled(attempt.requested(), attempt.responded(), attempt.copied(), attempt.status());
+        HttpHeaders headers = attempt.headers();
+        String encoding = headers.getFirst(HttpHeaders.CONTENT_ENCODING);
+        if (!"gzip".equalsIgnoreCase(encoding) && !"x-gzip".equalsIgnoreCase(encoding)) {
+            return new BufferedResponse(attempt.status(), headers, attempt.body());
+        }
+        byte[] inflated = compression.gunzip(attempt.body(), meters);
+        headers.remove(HttpHeaders.CONTENT_ENCODING);
+        headers.remove(HttpHeaders.CONTENT_LENGTH);
+        return new BufferedResponse(attempt.status(), headers, inflated, attempt.body());
+    }
+
+    private static Read read(ServerWebExchange exchange, RouteTable.RouteMatch match) {
+        ServerHttpRequest request = exchange.getRequest();
+        String principal = exchange.getAttributeOrDefault(PRINCIPAL_ATTRIBUTE, "");
+        return new Read(match, request.getURI().getRawQuery(), headers -> {
+            copyRequestHeaders(request, headers);
+            identify(headers, principal);
+        }, principal);
+    }
+
+    private Mono<Void> writeBuffered(ServerWebExchange exchange, RouteTable.RouteMatch match, BufferedResponse buffered) {
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(buffered.status());
+        response.getHeaders().addAll(buffered.headers());
+        byte[] body = encoded(exchange, buffered.status(), buffered.body(), null, buffered.gzipped(),
+                routeMetrics.meters(match.route()));
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(body)));
+    }
+
+    private Mono<Void> writeCached(ServerWebExchange exchange, RouteTable.RouteMatch match, String resource,
+                                   ResponseCache.Lookup lookup) {
+        CachedResponse cached = lookup.response();
+        ServerHttpResponse response = exchange.getResponse();
+        HttpHeaders headers = response.getHeaders();
+        headers.set(ResponseCache.OUTCOME_HEADER, lookup.outcome());
+        cached.headers().forEach(headers::addAll);
+
+        if (cached.status() != HttpStatus.OK.value()) {
+            response.setStatusCode(HttpStatusCode.valueOf(cached.status()));
+            return response.writeWith(Mono.just(response.bufferFactory().wrap(cached.body())));
+        }
+
+        headers.set(HttpHeaders.ETAG, cached.etag());
+        if (cached.matches(exchange.getRequest().getHeaders().getIfNoneMatch())) {
+            response.setStatusCode(HttpStatus.NOT_MODIFIED);
+            return response.setComplete();
+        }
+        response.setStatusCode(HttpStatus.OK);
+        String variantKey = match.route().id() + " " + resource + " " + cached.etag();
+        byte[] body = encoded(exchange, HttpStatus.OK, cached.body(), variantKey, null, routeMetrics.meters(match.route()));
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(body)));
+    }
+
+    /**
+     * The body to write for a whole response, gzipped when it is worth it and the client accepts it, with
+     * the response headers set to match. {@code variantKey} identifies a cached body, whose gzipped form is
+     * then kept for the next client; it is null for bodies that are not cached. {@code upstreamGzip} is the
+     * body as the upstream gzipped it, if it did, and is sent instead of gzipping the body again.
+     */
+    private byte[] encoded(ServerWebExchange exchange, HttpStatusCode status, byte[] body, String variantKey,
+                           byte[] upstreamGzip, RouteMetrics.RouteMeters meters) {
+        HttpHeaders headers = exchange.getResponse().getHeaders();
+        if (compression.isEncoded(headers)) {
+            meters.passedThroughEncoded();
+        } else if (compressible(exchange, status, body.length)) {
+            compression.addVary(headers);
+            if (compression.acceptsGzip(exchange.getRequest().getHeaders()) && upstreamGzip != null) {
+                meters.passedThroughEncoded();
+                compression.markGzipped(headers, upstreamGzip.length);
+                return upstreamGzip;
+            }
+            if (compression.acceptsGzip(exchange.getRequest().getHeaders())) {
+                byte[] gzipped = variantKey != null
+                        ? compression.gzipVariant(variantKey, body, meters)
+                        : compression.gzip(body, meters);
+                compression.markGzipped(headers, gzipped.length);
+                return gzipped;
+            }
+        }
+        headers.setContentLength(body.length);
+        return body;
+    }
+
+    private boolean compressible(ServerWebExchange exchange, HttpStatusCode status, long length) {
+        // HEAD, 204 and 304 responses carry no body to compress
+        return exchange.getRequest().getMethod() != HttpMethod.HEAD
+                && status.value() != HttpStatus.NO_CONTENT.value()
+                && status.value() != HttpStatus.NOT_MODIFIED.value()
+                && compression.isCompressible(exchange.getResponse().getHeaders(), length);
+    }
+
+    /**
+     * The URI a request is sent to on the chosen instance, public for the upstream URI benchmark.
+     */
+    public static URI upstreamUri(UpstreamBalancer.Instance instance, String upstreamPath, String rawQuery) {
+        return UriComponentsBuilder.fromHttpUrl(instance.baseUrl())
+                .path(upstreamPath)
+                .query(rawQuery)
+                .build(true)
+                .toUri();
+    }
+
+    static void copyRequestHeaders(ServerHttpRequest request, HttpHeaders headers) {
+        copyHeaders(request.getHeaders(), headers);
+
+        String clientAddress = request.getRemoteAddress() != null
+                ? request.getRemoteAddress().getAddress().getHostAddress()
+                : null;
+        if (clientAddress != null) {
+            String forwardedFor = request.getHeaders().getFirst("X-Forwarded-For");
+            headers.set("X-Forwarded-For", forwardedFor == null ? clientAddress : forwardedFor + ", " + clientAddress);
+        }
+        if (request.getHeaders().getFirst(HttpHeaders.HOST) != null) {
+            headers.set("X-Forwarded-Host", request.getHeaders().getFirst(HttpHeaders.HOST));
+        }
+        headers.set("X-Forwarded-Proto", request.getURI().getScheme());
+    }
+
+    /**
+     * Replaces whatever {@link #PRINCIPAL_HEADER} the headers carry with {@code principal}, or just drops it
+     * when there is none, as on unauthenticated routes.
+     */
+    static void identify(HttpHeaders headers, String principal) {
+        headers.remove(PRINCIPAL_HEADER);
+        if (principal != null && !principal.isEmpty()) {
+            headers.set(PRINCIPAL_HEADER, principal);
+        }
+    }
+
+    private static void copyHeaders(HttpHeaders from, HttpHeaders to) {
+        from.forEach((name, values) -> {
+            if (!HOP_BY_HOP_HEADERS.contains(name.toLowerCase())) {
+                to.addAll(name, values);
+            }
+        });
+    }
+
+    private static boolean hasBody(HttpHeaders headers) {
+        return headers.getContentLength() > 0 || headers.containsKey(HttpHeaders.TRANSFER_ENCODING);
+    }
+
+    private static HttpStatus errorStatus(Throwable e) {
+        if (e instanceof UpstreamUnavailableException) {
+            return HttpStatus.SERVICE_UNAVAILABLE;
+        }
+        return isTimeout(e) ? HttpStatus.GATEWAY_TIMEOUT : HttpStatus.BAD_GATEWAY;
+    }
+
+    private static boolean isTimeout(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TimeoutException || cause instanceof ReadTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A buffered GET of a route: the upstream resource, how to fill in the request headers and who asked.
+     */
+    private record Read(RouteTable.RouteMatch match, String rawQuery, Consumer<HttpHeaders> headers, String principal) {
+        String resource() {
+            return match.upstreamPath() + (rawQuery != null ? "?" + rawQuery : "");
+        }
+    }
+
+    // one upstream call of a GET read whole, recorded and inflated only once it is the answer used
+    private record Attempt(HttpStatusCode status, HttpHeaders headers, byte[] body, long requested, long responded,
+                           long copied) {
+    }
+}
@@ -0,0 +1,189 @@
+package com.minispotify.gateway.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latency histograms, in-flight gauges and upstream status counters for every route, all registered up
+ * front so that recording a request is a map lookup by route id and a few calls on existing meters,
+ * without allocating. Phases are timed as {@code gateway.route.latency} tagged with the route and one of:
+ * <ul>
+ *     <li>{@code verify}: token verification, from the local cache or redis</li>
+ *     <li>{@code upstream-response}: from sending the upstream request until its status arrives</li>
+ *     <li>{@code body-copy}: from the upstream status until the body is relayed to the client, or read
+ *     whole for buffered routes</li>
+ *     <li>{@code total}: the whole exchange as the gateway handles it; every read a batch or library
+ *     request fans out to counts as one exchange of the route it reads</li>
+ * </ul>
+ * Connecting to an upstream happens once per pooled connection rather than per request and is timed per
+ * upstream by {@link UpstreamConnectMetrics}. Compression done by the gateway is counted per route as
+ * {@code gateway.compression.bytes} before and after gzip, {@code gateway.compression.time} spent on it and
+ * {@code gateway.compression.responses} by whether a response was gzipped, served from a cached gzipped
+ * variant or passed through in the upstream's own encoding.
+ */
+@Component
+public class RouteMetrics {
+
+    static final Duration MIN_EXPECTED = Duration.ofMillis(1).dividedBy(10);
+    static final Duration MAX_EXPECTED = Duration.ofSeconds(30);
+
+    private final Map<String, RouteMeters> meters = new HashMap<>();
+
+    public RouteMetrics(RouteTable routeTable, MeterRegistry meterRegistry) {
+        routeTable.routes().forEach(route -> meters.put(route.id(), new RouteMeters(route, meterRegistry)));
+    }
+
+    public RouteMeters meters(RouteTable.Route route) {
+        return meters.get(route.id());
+    }
+
+    public static class RouteMeters {
+
+        private final Timer verify;
+        private final Timer upstreamResponse;
+        private final Timer bodyCopy;
+        private final Timer total;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        // indexed by status class, 1xx to 5xx
+        private final Counter[] statuses = new Counter[6];
+        private final Counter uncompressedBytes;
+        private final Counter compressedBytes;
+        private final Timer compressTime;
+        private final Timer decompressTime;
+        private final Counter compressedResponses;
+        private final Counter cachedVariantResponses;
+        private final Counter passthroughResponses;
+
+        private RouteMeters(RouteTable.Route route, MeterRegistry meterRegistry) {
+            verify = latency(route, "verify", meterRegistry);
+            upstreamResponse = latency(route, "upstream-response", meterRegistry);
+            bodyCopy = latency(route, "body-copy", meterRegistry);
+            total = latency(route, "total", meterRegistry);
+            Gauge.builder("gateway.route.in-flight", inFlight, AtomicInteger::get)
+                    .tag("route", route.id())
+                    .register(meterRegistry);
+            for (int statusClass = 1; statusClass < statuses.length; statusClass++) {
+                statuses[statusClass] = Counter.builder("gateway.upstream.responses")
+                        .tag("route", route.id())
+                        .tag("upstream", route.upstream())
+                        .tag("status", statusClass + "xx")
+                        .register(meterRegistry);
+            }
+            uncompressedBytes = compressionBytes(route, "uncompressed", meterRegistry);
+            compressedBytes = compressionBytes(route, "compressed", meterRegistry);
+            compressTime = compressionTime(route, "compress", meterRegistry);
+            decompressTime = compressionTime(route, "decompress", meterRegistry);
+            compressedResponses = compressionResponses(route, "compressed", meterRegistry);
+            cachedVariantResponses = compressionResponses(route, "cached-variant", meterRegistry);
+            passthroughResponses = compressionResponses(route, "passthrough", meterRegistry);
+        }
+
+        /**
+         * Marks the start of an exchange, returns the timestamp to hand to the phase methods.
+         */
+        public long started() {
+            inFlight.incrementAndGet();
+            return System.nanoTime();
+        }
+
+        public void finished(long startedNanos) {
+            inFlight.decrementAndGet();
+            total.record(System.nanoTime() - startedNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void verified(long startedNanos) {
+            verify.record(System.nanoTime() - startedNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Records the wait for the upstream status and counts the status; returns when it arrived.
+         */
+        public long upstreamResponded(long requestedNanos, HttpStatusCode status) {
+            long now = System.nanoTime();
+            upstreamResponse.record(now - requestedNanos, TimeUnit.NANOSECONDS);
+            countStatus(status);
+            return now;
+        }
+
+        /**
+         * Records a call read whole after the fact, for hedged calls of which only the one answering counts.
+         */
+        public void upstreamCalled(long requestedNanos, long respondedNanos, long copiedNanos, HttpStatusCode status) {
+            upstreamResponse.record(respondedNanos - requestedNanos, TimeUnit.NANOSECONDS);
+            countStatus(status);
+            bodyCopy.record(copiedNanos - respondedNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void bodyCopied(long respondedNanos) {
+            bodyCopy.record(System.nanoTime() - respondedNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void compressed(long bytesIn, long bytesOut, long nanos) {
+            uncompressedBytes.increment(bytesIn);
+            compressedBytes.increment(bytesOut);
+            compressTime.record(nanos, TimeUnit.NANOSECONDS);
+            compressedResponses.increment();
+        }
+
+        public void decompressed(long nanos) {
+            decompressTime.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void servedCompressedVariant() {
+            cachedVariantResponses.increment();
+        }
+
+        public void passedThroughEncoded() {
+            passthroughResponses.increment();
+        }
+
+        private void countStatus(HttpStatusCode status) {
+            int statusClass = status.value() / 100;
+            if (statusClass > 0 && statusClass < statuses.length) {
+                statuses[statusClass].increment();
+            }
+        }
+
+        private static Timer latency(RouteTable.Route route, String phase, MeterRegistry meterRegistry) {
+            return Timer.builder("gateway.route.latency")
+                    .tag("route", route.id())
+                    .tag("phase", phase)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(MIN_EXPECTED)
+                    .maximumExpectedValue(MAX_EXPECTED)
+                    .register(meterRegistry);
+        }
+
+        private static Counter compressionBytes(RouteTable.Route route, String side, MeterRegistry meterRegistry) {
+            return Counter.builder("gateway.compression.bytes")
+                    .tag("route", route.id())
+                    .tag("side", side)
+                    .baseUnit("bytes")
+                    .register(meterRegistry);
+        }
+
+        private static Timer compressionTime(RouteTable.Route route, String operation, MeterRegistry meterRegistry) {
+            return Timer.builder("gateway.compression.time")
+                    .tag("route", route.id())
+                    .tag("operation", operation)
+                    .register(meterRegistry);
+        }
+
+        private static Counter compressionResponses(RouteTable.Route route, String outcome, MeterRegistry meterRegistry) {
+            return Counter.builder("gateway.compression.responses")
+                    .tag("route", route.id())
+                    .tag("outcome", outcome)
+                    .register(meterRegistry);
+        }
+    }
+}
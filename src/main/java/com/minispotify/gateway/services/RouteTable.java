@@ -0,0 +1,119 @@
+package com.minispotify.gateway.services;
+
+import com.minispotify.gateway.config.RouteProperties;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.server.PathContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * The gateway.routes table compiled into path patterns, most specific first.
+ */
+@Component
+public class RouteTable {
+
+    private final List<Route> routes;
+
+    public RouteTable(RouteProperties properties, UpstreamClients upstreamClients) {
+        this.routes = properties.getRoutes().stream()
+                .map(route -> compile(route, upstreamClients))
+                .sorted(Comparator.comparing(Route::pattern, PathPattern.SPECIFICITY_COMPARATOR))
+                .toList();
+    }
+
+    public Optional<RouteMatch> match(HttpMethod method, PathContainer path) {
+        for (Route route : routes) {
+            if (!route.methods().contains(method)) {
+                continue;
+            }
+            PathPattern.PathMatchInfo matchInfo = route.pattern().matchAndExtract(path);
+            if (matchInfo != null) {
+                return Optional.of(new RouteMatch(route, matchInfo.getUriVariables()));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Whether any route serves the path, regardless of method; tells a 405 apart from a 404.
+     */
+    public boolean hasPath(PathContainer path) {
+        return routes.stream().anyMatch(route -> route.pattern().matches(path));
+    }
+
+    public List<Route> routes() {
+        return routes;
+    }
+
+    public Optional<Route> route(String id) {
+        return routes.stream().filter(route -> route.id().equals(id)).findFirst();
+    }
+
+    private static Route compile(RouteProperties.Route route, UpstreamClients upstreamClients) {
+        if (!StringUtils.hasText(route.getId()) || !StringUtils.hasText(route.getPath()) || route.getMethods().isEmpty()) {
+            throw new IllegalStateException("Route needs an id, a path and at least one method: " + route);
+        }
+        // fail at startup rather than on the first request for a route pointing at an unknown upstream
+        upstreamClients.get(route.getUpstream());
+
+        String rewrite = StringUtils.hasText(route.getRewrite()) ? route.getRewrite() : route.getPath();
+        return new Route(
+                route.getId(),
+                Set.copyOf(route.getMethods()),
+                PathPatternParser.defaultInstance.parse(route.getPath()),
+                route.getUpstream(),
+                rewrite,
+                route.isAuthenticated(),
+                cachePolicy(route),
+                route.getCoalesce(),
+                route.isAsyncWrites());
+    }
+
+    private static CachePolicy cachePolicy(RouteProperties.Route route) {
+        RouteProperties.Cache cache = route.getCache();
+        if (cache == null) {
+            return null;
+        }
+        if (!StringUtils.hasText(cache.getRegion())) {
+            throw new IllegalStateException("Route " + route.getId() + " has a cache policy without a region");
+        }
+        return new CachePolicy(cache.getTtl(), cache.getRegion());
+    }
+
+    public record Route(String id, Set<HttpMethod> methods, PathPattern pattern, String upstream,
+                        String rewrite, boolean authenticated, CachePolicy cache,
+                        RouteProperties.Coalescing coalescing, boolean asyncWrites) {
+    }
+
+    /**
+     * Without a ttl the route's GETs are not cached but its writes still invalidate the region.
+     */
+    public record CachePolicy(Duration ttl, String region) {
+        public boolean cachesReads() {
+            return ttl != null;
+        }
+    }
+
+    public record RouteMatch(Route route, Map<String, String> uriVariables) {
+        /**
+         * The encoded upstream path for this match, e.g. /artists/42. Variables are encoded as a whole, so
+         * a / they contain (sent as %2F) stays inside its segment.
+         */
+        public String upstreamPath() {
+            return UriComponentsBuilder.fromPath(route.rewrite())
+                    .encode()
+                    .buildAndExpand(uriVariables)
+                    .getPath();
+        }
+    }
+}
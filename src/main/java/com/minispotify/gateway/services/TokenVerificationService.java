@@ -0,0 +1,160 @@
+package com.minispotify.gateway.services;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.minispotify.gateway.config.AuthProperties;
+import com.minispotify.gateway.config.TokenCacheProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.ReactiveSubscription;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.Topic;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Looks bearer tokens up in redis, concurrent lookups batched into MGETs, keeping recent answers (found and
+ * not found) in a bounded local cache. Entries are dropped as soon as the authentication service publishes the
+ * token on the revocation channel or, for tokens stored under a key prefix, redis reports the key deleted,
+ * expired or overwritten. Only the token keys are watched, not the gateway's own keys. In JWT mode
+ * tokens are instead validated locally by the {@link JwtTokenVerifier} and neither redis nor the cache is involved.
+ */
+@Service
+public class TokenVerificationService {
+
+    private static final String BEARER_PREFIX = "Bearer ";
+    // keyspace channels are __keyspace@<db>__:<key>
+    private static final String KEYSPACE_SEPARATOR = "__:";
+
+    private final MultiGetBatcher lookups;
+    private final TokenCacheProperties properties;
+    private final AsyncCache<String, CachedToken> cache;
+    private final RedisSubscriptions redisSubscriptions;
+    private final JwtTokenVerifier jwtTokenVerifier;
+    private Disposable invalidations;
+
+    public TokenVerificationService(ReactiveStringRedisTemplate redisTemplate,
+                                    TokenCacheProperties properties,
+                                    RedisSubscriptions redisSubscriptions,
+                                    AuthProperties authProperties,
+                                    JwtTokenVerifier jwtTokenVerifier,
+                                    MeterRegistry meterRegistry) {
+        this.lookups = new MultiGetBatcher(redisTemplate, properties.getLookupBatchSize(), properties.getLookupConcurrency(),
+                "gateway.tokens.lookups", meterRegistry);
+        this.properties = properties;
+        this.redisSubscriptions = redisSubscriptions;
+        this.jwtTokenVerifier = authProperties.getMode() == AuthProperties.Mode.JWT ? jwtTokenVerifier : null;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .expireAfter(new CachedTokenExpiry(properties))
+                .recordStats()
+                .buildAsync();
+
+        if (properties.isEnabled() && this.jwtTokenVerifier == null) {
+            CaffeineCacheMetrics.monitor(meterRegistry, cache, "gateway.tokens");
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void subscribeToInvalidations() {
+        if (!properties.isEnabled() || jwtTokenVerifier != null) {
+            return;
+        }
+        // revocations carry the token as the message body, keyspace notifications the key in their channel
+        // while the subscription is down cached tokens only leave the cache through their ttl
+        invalidations = redisSubscriptions.channelMessages(invalidationTopics(), "token invalidations")
+                .subscribe(message -> invalidate(invalidatedToken(message)));
+    }
+
+    @PreDestroy
+    public void unsubscribeFromInvalidations() {
+        if (invalidations != null) {
+            invalidations.dispose();
+        }
+    }
+
+    /**
+     * Emits the value stored in redis (in JWT mode the principal claim) for the token carried by the given
+     * Authorization header, or an empty optional if the header is malformed or the token is unknown.
+     */
+    public Mono<Optional<String>> verify(String authorizationHeader) {
+        if (authorizationHeader == null || !authorizationHeader.startsWith(BEARER_PREFIX)) {
+            return Mono.just(Optional.empty());
+        }
+        String token = authorizationHeader.substring(BEARER_PREFIX.length());
+
+        if (jwtTokenVerifier != null) {
+            return Mono.just(jwtTokenVerifier.verify(token));
+        }
+        if (!properties.isEnabled()) {
+            return lookup(token).map(CachedToken::asOptional);
+        }
+        return Mono.fromFuture(() -> cache.get(token, (key, executor) -> lookup(key).toFuture()))
+                .map(CachedToken::asOptional);
+    }
+
+    public void invalidate(String token) {
+        cache.synchronous().invalidate(token);
+    }
+
+    private Mono<CachedToken> lookup(String token) {
+        return lookups.get(properties.getKeyPrefix() + token)
+                .map(CachedToken::new)
+                .defaultIfEmpty(new CachedToken(null));
+    }
+
+    private List<Topic> invalidationTopics() {
+        List<Topic> topics = new ArrayList<>();
+        topics.add(new ChannelTopic(properties.getRevocationChannel()));
+        if (!properties.getKeyPrefix().isEmpty()) {
+            topics.add(new PatternTopic("__keyspace@*__:" + properties.getKeyPrefix() + "*"));
+        }
+        return topics;
+    }
+
+    private String invalidatedToken(ReactiveSubscription.Message<String, String> message) {
+        if (message.getChannel().equals(properties.getRevocationChannel())) {
+            return message.getMessage();
+        }
+        String key = message.getChannel().substring(message.getChannel().indexOf(KEYSPACE_SEPARATOR) + KEYSPACE_SEPARATOR.length());
+        return key.substring(properties.getKeyPrefix().length());
+    }
+
+    private record CachedToken(String value) {
+        boolean found() {
+            return value != null;
+        }
+
+        Optional<String> asOptional() {
+            return Optional.ofNullable(value);
+        }
+    }
+
+    private record CachedTokenExpiry(TokenCacheProperties properties) implements Expiry<String, CachedToken> {
+        @Override
+        public long expireAfterCreate(String key, CachedToken token, long currentTime) {
+            return (token.found() ? properties.getPositiveTtl() : properties.getNegativeTtl()).toNanos();
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, CachedToken token, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, token, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, CachedToken token, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.minispotify.gateway.services;
+
+import com.minispotify.gateway.config.UpstreamProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Spreads the calls to one upstream over its instances. Each call goes to the better of two instances
+ * picked at random, judged by the instance's latency times the calls it has in flight. The latency is a
+ * moving average that decays with time and jumps straight up to a slower call, so an instance that turns
+ * slow loses its traffic right away and wins it back gradually. An instance failing several calls in a row
+ * is left out for a while; up to a share of the instances, so a failing upstream as a whole is still left
+ * to its circuit breaker.
+ * <p>
+ * The balancer also paces hedging: how long a GET waits for its first instance before a second one is
+ * asked as well, taken from the upstream's recent latencies, and a budget that keeps hedges to a small
+ * share of the requests.
+ */
+@Slf4j
+public class UpstreamBalancer {
+
+    // recent successful latencies the hedge delay is taken from
+    private static final int LATENCY_SAMPLES = 1024;
+    private static final int MIN_LATENCY_SAMPLES = 50;
+    private static final long HEDGE_DELAY_RECOMPUTE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // hedge budget in thousandths of a hedge, at most ten hedges saved up
+    private static final long HEDGE_COST = 1000;
+    private static final long MAX_HEDGE_CREDITS = 10 * HEDGE_COST;
+
+    private final List<Instance> instances;
+    private final UpstreamProperties.Balancing balancing;
+    private final UpstreamProperties.Hedging hedging;
+    private final AtomicLongArray latencies = new AtomicLongArray(LATENCY_SAMPLES);
+    private final AtomicLong latencySamples = new AtomicLong();
+    private final AtomicLong hedgeCredits = new AtomicLong(MAX_HEDGE_CREDITS);
+    private final Counter hedgesSent;
+    private final Counter hedgesWon;
+    private volatile long hedgeDelayNanos = -1;
+    private volatile long hedgeDelayComputedAt = System.nanoTime() - HEDGE_DELAY_RECOMPUTE_NANOS;
+
+    public UpstreamBalancer(String upstream, List<String> urls, UpstreamProperties.Balancing balancing,
+                            UpstreamProperties.Hedging hedging, MeterRegistry meterRegistry) {
+        this.balancing = balancing;
+        this.hedging = hedging;
+        this.instances = urls.stream().map(url -> new Instance(upstream, url, meterRegistry)).toList();
+        this.hedgesSent = hedges(upstream, "sent", meterRegistry);
+        this.hedgesWon = hedges(upstream, "won", meterRegistry);
+    }
+
+    public List<Instance> instances() {
+        return instances;
+    }
+
+    /**
+     * The instance for the next call, other than {@code avoided} if there is another one; {@code avoided}
+     * may be null. Ejected instances are only chosen when nothing else is left.
+     */
+    public Instance choose(Instance avoided) {
+        if (instances.size() == 1) {
+            return instances.get(0);
+        }
+        long now = System.nanoTime();
+        List<Instance> candidates = new ArrayList<>(instances.size());
+        for (Instance instance : instances) {
+            if (instance != avoided && !instance.isEjected(now)) {
+                candidates.add(instance);
+            }
+        }
+        if (candidates.isEmpty()) {
+            instances.stream().filter(instance -> instance != avoided).forEach(candidates::add);
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(candidates.size());
+        int second = random.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        Instance a = candidates.get(first);
+        Instance b = candidates.get(second);
+        return a.load() <= b.load() ? a : b;
+    }
+
+    /**
+     * How long a GET should wait for its first instance before asking another one, or null when it should
+     * not be hedged at all. Every hedgeable GET adds to the hedge budget.
+     */
+    public Duration hedgeDelay() {
+        if (!hedging.isEnabled() || instances.size() < 2) {
+            return null;
+        }
+        long deposit = HEDGE_COST * hedging.getBudgetPercent() / 100;
+        hedgeCredits.updateAndGet(credits -> Math.min(MAX_HEDGE_CREDITS, credits + deposit));
+        if (hedging.getDelay() != null) {
+            return hedging.getDelay();
+        }
+        long delay = percentileDelay();
+        return delay >= 0 ? Duration.ofNanos(delay) : null;
+    }
+
+    /**
+     * Takes a hedge from the budget; false when the budget is used up and the GET should keep waiting.
+     */
+    public boolean tryHedge() {
+        long credits;
+        do {
+            credits = hedgeCredits.get();
+            if (credits < HEDGE_COST) {
+                return false;
+            }
+        } while (!hedgeCredits.compareAndSet(credits, credits - HEDGE_COST));
+        hedgesSent.increment();
+        return true;
+    }
+
+    public void hedgeWon() {
+        hedgesWon.increment();
+    }
+
+    private long percentileDelay() {
+        long now = System.nanoTime();
+        if (now - hedgeDelayComputedAt < HEDGE_DELAY_RECOMPUTE_NANOS) {
+            return hedgeDelayNanos;
+        }
+        hedgeDelayComputedAt = now;
+        int count = (int) Math.min(latencySamples.get(), LATENCY_SAMPLES);
+        if (count < MIN_LATENCY_SAMPLES) {
+            hedgeDelayNanos = -1;
+            return -1;
+        }
+        long[] sorted = new long[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(hedging.getPercentile() * count) - 1;
+        hedgeDelayNanos = sorted[Math.max(0, Math.min(count - 1, rank))];
+        return hedgeDelayNanos;
+    }
+
+    private void sample(long latencyNanos) {
+        latencies.set((int) (latencySamples.getAndIncrement() % LATENCY_SAMPLES), latencyNanos);
+    }
+
+    private boolean mayEject() {
+        long now = System.nanoTime();
+        long ejected = instances.stream().filter(instance -> instance.isEjected(now)).count();
+        return ejected + 1 <= instances.size() * balancing.getMaxEjectionPercent() / 100;
+    }
+
+    private static Counter hedges(String upstream, String outcome, MeterRegistry meterRegistry) {
+        return Counter.builder("gateway.upstream.hedges")
+                .tag("upstream", upstream)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    /**
+     * One instance of the upstream, with what the balancer knows about it. Calls report to it through
+     * {@link UpstreamGuard.Call}.
+     */
+    public class Instance {
+
+        private final String upstream;
+        private final String baseUrl;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final Counter ejections;
+        private long latencyNanos;
+        private long lastUpdateNanos = System.nanoTime();
+        private int consecutiveFailures;
+        private volatile long ejectedUntilNanos = System.nanoTime();
+
+        private Instance(String upstream, String baseUrl, MeterRegistry meterRegistry) {
+            this.upstream = upstream;
+            this.baseUrl = baseUrl;
+            this.ejections = Counter.builder("gateway.upstream.instance.ejections")
+                    .tag("upstream", upstream)
+                    .tag("instance", baseUrl)
+                    .register(meterRegistry);
+            TimeGauge.builder("gateway.upstream.instance.latency", this, TimeUnit.NANOSECONDS, Instance::latency)
+                    .tag("upstream", upstream)
+                    .tag("instance", baseUrl)
+                    .register(meterRegistry);
+        }
+
+        public String baseUrl() {
+            return baseUrl;
+        }
+
+        void acquired() {
+            inFlight.incrementAndGet();
+        }
+
+        void released() {
+            inFlight.decrementAndGet();
+        }
+
+        synchronized void succeeded(long latency) {
+            consecutiveFailures = 0;
+            observe(latency);
+            sample(latency);
+        }
+
+        synchronized void failed(long latency) {
+            observe(latency);
+            if (++consecutiveFailures >= balancing.getConsecutiveFailures() && mayEject()) {
+                consecutiveFailures = 0;
+                ejectedUntilNanos = System.nanoTime() + balancing.getEjectionTime().toNanos();
+                ejections.increment();
+                log.warn("Ejected instance {} of upstream {} for {}", baseUrl, upstream, balancing.getEjectionTime());
+            }
+        }
+
+        // given up on after this long, the call would have taken at least as much
+        synchronized void cancelled(long elapsed) {
+            observe(elapsed);
+        }
+
+        private synchronized long latency() {
+            return latencyNanos;
+        }
+
+        private boolean isEjected(long now) {
+            return now - ejectedUntilNanos < 0;
+        }
+
+        private synchronized double load() {
+            return (double) latencyNanos * (inFlight.get() + 1);
+        }
+
+        // peak sensitive: a slower call replaces the estimate, faster ones pull it down as time passes
+        private void observe(long latency) {
+            long now = System.nanoTime();
+            if (latency > latencyNanos) {
+                latencyNanos = latency;
+            } else {
+                double weight = Math.exp(-(double) (now - lastUpdateNanos) / balancing.getDecayTime().toNanos());
+                latencyNanos = (long) (latencyNanos * weight + latency * (1 - weight));
+            }
+            lastUpdateNanos = now;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.minispotify.gateway.services;
+
+import com.minispotify.gateway.config.UpstreamProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelOption;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One {@link WebClient} per configured upstream, each on its own connection pool so a slow service can
+ * only exhaust its own connections. Pools publish their saturation and lease-wait time as
+ * {@code reactor.netty.connection.provider.*} metrics tagged with the upstream name, and the time it
+ * takes to open a connection as {@code gateway.upstream.connect}. Requests are sent to absolute URLs on
+ * the instance their upstream's {@link UpstreamBalancer} chose.
+ */
+public class UpstreamClients {
+
+    private final Map<String, WebClient> clients = new HashMap<>();
+    private final Map<String, ConnectionProvider> pools = new HashMap<>();
+    private final Map<String, UpstreamBalancer> balancers = new HashMap<>();
+
+    public UpstreamClients(WebClient.Builder builder, UpstreamProperties properties, MeterRegistry meterRegistry) {
+        properties.getUpstreams().forEach((name, upstream) -> {
+            ConnectionProvider pool = connectionProvider(name, upstream.getPool());
+            UpstreamConnectMetrics connectMetrics = new UpstreamConnectMetrics(name, meterRegistry);
+            HttpClient httpClient = HttpClient.create(pool)
+                    .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) upstream.getConnectTimeout().toMillis())
+                    .option(ChannelOption.SO_KEEPALIVE, upstream.getPool().isKeepAlive())
+                    .keepAlive(upstream.getPool().isKeepAlive())
+                    .responseTimeout(upstream.getReadTimeout())
+                    .metrics(true, () -> connectMetrics);
+
+            pools.put(name, pool);
+            balancers.put(name, new UpstreamBalancer(name, urls(name, upstream), upstream.getBalancing(),
+                    upstream.getHedging(), meterRegistry));
+            clients.put(name, builder.clone()
+                    .clientConnector(new ReactorClientHttpConnector(httpClient))
+                    .build());
+        });
+    }
+
+    public WebClient get(String upstream) {
+        WebClient client = clients.get(upstream);
+        if (client == null) {
+            throw new IllegalArgumentException("No upstream configured with name " + upstream);
+        }
+        return client;
+    }
+
+    public UpstreamBalancer balancer(String upstream) {
+        get(upstream);
+        return balancers.get(upstream);
+    }
+
+    public void dispose() {
+        pools.values().forEach(ConnectionProvider::dispose);
+    }
+
+    private static List<String> urls(String name, UpstreamProperties.Upstream upstream) {
+        if (!upstream.getUrls().isEmpty()) {
+            return upstream.getUrls();
+        }
+        if (upstream.getUrl() == null) {
+            throw new IllegalStateException("Upstream " + name + " has neither url nor urls configured");
+        }
+        return List.of(upstream.getUrl());
+    }
+
+    private static ConnectionProvider connectionProvider(String name, UpstreamProperties.Pool pool) {
+        ConnectionProvider.Builder builder = ConnectionProvider.builder(name)
+                .maxConnections(pool.getMaxConnections())
+                .pendingAcquireMaxCount(pool.getPendingAcquireMaxCount())
+                .pendingAcquireTimeout(pool.getPendingAcquireTimeout())
+                .maxIdleTime(pool.getMaxIdleTime())
+                .maxLifeTime(pool.getMaxLifeTime())
+                .metrics(true);
+        if (!pool.getEvictionInterval().isZero()) {
+            builder.evictInBackground(pool.getEvictionInterval());
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,51 @@
+package com.minispotify.gateway.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.netty.channel.ChannelMetricsRecorder;
+
+import java.net.SocketAddress;
+import java.time.Duration;
+
+/**
+ * Times how long opening a connection to one upstream takes, as {@code gateway.upstream.connect}. Only
+ * the connection-level callbacks of reactor netty are wired, so nothing is recorded per request.
+ */
+class UpstreamConnectMetrics implements ChannelMetricsRecorder {
+
+    private final Timer connect;
+
+    UpstreamConnectMetrics(String upstream, MeterRegistry meterRegistry) {
+        this.connect = Timer.builder("gateway.upstream.connect")
+                .tag("upstream", upstream)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(RouteMetrics.MIN_EXPECTED)
+                .maximumExpectedValue(RouteMetrics.MAX_EXPECTED)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void recordConnectTime(SocketAddress remoteAddress, Duration time, String status) {
+        connect.record(time);
+    }
+
+    @Override
+    public void recordDataReceived(SocketAddress remoteAddress, long bytes) {
+    }
+
+    @Override
+    public void recordDataSent(SocketAddress remoteAddress, long bytes) {
+    }
+
+    @Override
+    public void incrementErrorsCount(SocketAddress remoteAddress) {
+    }
+
+    @Override
+    public void recordTlsHandshakeTime(SocketAddress remoteAddress, Duration time, String status) {
+    }
+
+    @Override
+    public void recordResolveAddressTime(SocketAddress remoteAddress, Duration time, String status) {
+    }
+}
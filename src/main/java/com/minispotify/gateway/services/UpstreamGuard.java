@@ -0,0 +1,156 @@
+package com.minispotify.gateway.services;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.HttpStatusCode;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Admission control in front of one upstream: its circuit breaker, its bulkhead and its adaptive
+ * concurrency limit, checked in that order. A call that is not admitted fails right away with
+ * {@link UpstreamUnavailableException} instead of queueing behind a service that cannot keep up.
+ */
+public class UpstreamGuard {
+
+    private final String upstream;
+    private final CircuitBreaker circuitBreaker;
+    private final Bulkhead bulkhead;
+    private final AdaptiveConcurrencyLimit limit;
+    private final Counter circuitOpenRejections;
+    private final Counter bulkheadRejections;
+    private final Counter limitRejections;
+
+    public UpstreamGuard(String upstream, CircuitBreaker circuitBreaker, Bulkhead bulkhead,
+                         AdaptiveConcurrencyLimit limit, MeterRegistry meterRegistry) {
+        this.upstream = upstream;
+        this.circuitBreaker = circuitBreaker;
+        this.bulkhead = bulkhead;
+        this.limit = limit;
+        this.circuitOpenRejections = rejections(meterRegistry, "circuit-open");
+        this.bulkheadRejections = rejections(meterRegistry, "bulkhead-full");
+        this.limitRejections = rejections(meterRegistry, "limit-reached");
+    }
+
+    /**
+     * Runs {@code exchange} if the upstream admits another call. The exchange reports the status the
+     * upstream answered with through {@link Call#responded}; the time until then is the latency the
+     * breaker and the limit judge, and a 5xx counts as a failure. The call holds its permits until the
+     * returned {@link Mono} terminates or is cancelled.
+     */
+    public <T> Mono<T> call(Function<Call, Mono<T>> exchange) {
+        return call(null, exchange);
+    }
+
+    /**
+     * Like {@link #call(Function)} for a call to one particular instance of the upstream, which is told
+     * how the call went as well.
+     */
+    public <T> Mono<T> call(UpstreamBalancer.Instance instance, Function<Call, Mono<T>> exchange) {
+        return Mono.defer(() -> {
+            if (!circuitBreaker.tryAcquirePermission()) {
+                circuitOpenRejections.increment();
+                return Mono.error(new UpstreamUnavailableException(upstream, "circuit open"));
+            }
+            if (!bulkhead.tryAcquirePermission()) {
+                circuitBreaker.releasePermission();
+                bulkheadRejections.increment();
+                return Mono.error(new UpstreamUnavailableException(upstream, "bulkhead full"));
+            }
+            if (limit != null && !limit.tryAcquire()) {
+                circuitBreaker.releasePermission();
+                bulkhead.onComplete();
+                limitRejections.increment();
+                return Mono.error(new UpstreamUnavailableException(upstream, "concurrency limit reached"));
+            }
+
+            Call call = new Call(limit != null ? limit.inFlight() : 0, instance);
+            return exchange.apply(call)
+                    .doOnError(call::failed)
+                    .doFinally(signal -> {
+                        call.abandoned();
+                        call.released();
+                        bulkhead.onComplete();
+                        if (limit != null) {
+                            limit.release();
+                        }
+                    });
+        });
+    }
+
+    private Counter rejections(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("gateway.upstream.rejections")
+                .tag("upstream", upstream)
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    /**
+     * One admitted call. Only the first outcome reported counts, so a failure while the body is being
+     * relayed after the upstream already answered is not held against the upstream.
+     */
+    public class Call {
+
+        private final long startNanos = System.nanoTime();
+        private final int inFlightAtStart;
+        private final UpstreamBalancer.Instance instance;
+        private final AtomicBoolean recorded = new AtomicBoolean();
+
+        private Call(int inFlightAtStart, UpstreamBalancer.Instance instance) {
+            this.inFlightAtStart = inFlightAtStart;
+            this.instance = instance;
+            if (instance != null) {
+                instance.acquired();
+            }
+        }
+
+        public void responded(HttpStatusCode status) {
+            if (recorded.compareAndSet(false, true)) {
+                long latency = System.nanoTime() - startNanos;
+                circuitBreaker.onResult(latency, TimeUnit.NANOSECONDS, status);
+                if (limit != null) {
+                    limit.onSample(latency, status.is5xxServerError(), inFlightAtStart);
+                }
+                if (instance != null && status.is5xxServerError()) {
+                    instance.failed(latency);
+                } else if (instance != null) {
+                    instance.succeeded(latency);
+                }
+            }
+        }
+
+        private void failed(Throwable error) {
+            if (recorded.compareAndSet(false, true)) {
+                long latency = System.nanoTime() - startNanos;
+                circuitBreaker.onError(latency, TimeUnit.NANOSECONDS, error);
+                if (limit != null) {
+                    limit.onSample(latency, true, inFlightAtStart);
+                }
+                if (instance != null) {
+                    instance.failed(latency);
+                }
+            }
+        }
+
+        // cancelled before the upstream answered, nothing to judge it by
+        private void abandoned() {
+            if (recorded.compareAndSet(false, true)) {
+                circuitBreaker.releasePermission();
+                if (instance != null) {
+                    instance.cancelled(System.nanoTime() - startNanos);
+                }
+            }
+        }
+
+        private void released() {
+            if (instance != null) {
+                instance.released();
+            }
+        }
+    }
+}
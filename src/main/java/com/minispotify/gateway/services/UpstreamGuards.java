@@ -0,0 +1,99 @@
+package com.minispotify.gateway.services;
+
+import com.minispotify.gateway.config.UpstreamProperties;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The {@link UpstreamGuard} of every configured upstream. Besides the rejection counters each guard
+ * publishes, the breakers and bulkheads report as the usual {@code resilience4j.*} meters, breaker state
+ * changes are counted as {@code gateway.upstream.circuit.transitions} and the adaptive limits show up as
+ * {@code gateway.upstream.concurrency.limit} next to {@code gateway.upstream.in-flight}.
+ */
+@Slf4j
+@Component
+public class UpstreamGuards {
+
+    private final Map<String, UpstreamGuard> guards = new HashMap<>();
+
+    public UpstreamGuards(UpstreamProperties properties, MeterRegistry meterRegistry) {
+        CircuitBreakerRegistry circuitBreakers = CircuitBreakerRegistry.ofDefaults();
+        BulkheadRegistry bulkheads = BulkheadRegistry.ofDefaults();
+
+        properties.getUpstreams().forEach((name, upstream) -> {
+            CircuitBreaker circuitBreaker = circuitBreakers.circuitBreaker(name, circuitBreakerConfig(upstream.getCircuitBreaker()));
+            circuitBreaker.getEventPublisher().onStateTransition(event -> {
+                log.warn("Circuit breaker of upstream {} went {}", name, event.getStateTransition());
+                Counter.builder("gateway.upstream.circuit.transitions")
+                        .tag("upstream", name)
+                        .tag("to", event.getStateTransition().getToState().name().toLowerCase())
+                        .register(meterRegistry)
+                        .increment();
+            });
+            if (!upstream.getCircuitBreaker().isEnabled()) {
+                circuitBreaker.transitionToDisabledState();
+            }
+
+            Bulkhead bulkhead = bulkheads.bulkhead(name, BulkheadConfig.custom()
+                    .maxConcurrentCalls(upstream.getBulkhead().getMaxConcurrentCalls())
+                    .maxWaitDuration(Duration.ZERO)
+                    .build());
+
+            AdaptiveConcurrencyLimit limit = null;
+            if (upstream.getConcurrencyLimit().isEnabled()) {
+                limit = new AdaptiveConcurrencyLimit(upstream.getConcurrencyLimit());
+                Gauge.builder("gateway.upstream.concurrency.limit", limit, AdaptiveConcurrencyLimit::limit)
+                        .tag("upstream", name)
+                        .register(meterRegistry);
+            }
+            Gauge.builder("gateway.upstream.in-flight", bulkhead,
+                            b -> b.getBulkheadConfig().getMaxConcurrentCalls() - b.getMetrics().getAvailableConcurrentCalls())
+                    .tag("upstream", name)
+                    .register(meterRegistry);
+
+            guards.put(name, new UpstreamGuard(name, circuitBreaker, bulkhead, limit, meterRegistry));
+        });
+
+        TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(circuitBreakers).bindTo(meterRegistry);
+        TaggedBulkheadMetrics.ofBulkheadRegistry(bulkheads).bindTo(meterRegistry);
+    }
+
+    public UpstreamGuard get(String upstream) {
+        UpstreamGuard guard = guards.get(upstream);
+        if (guard == null) {
+            throw new IllegalArgumentException("No upstream configured with name " + upstream);
+        }
+        return guard;
+    }
+
+    private static CircuitBreakerConfig circuitBreakerConfig(UpstreamProperties.CircuitBreaker properties) {
+        return CircuitBreakerConfig.custom()
+                .failureRateThreshold(properties.getFailureRateThreshold())
+                .slowCallRateThreshold(properties.getSlowCallRateThreshold())
+                .slowCallDurationThreshold(properties.getSlowCallDurationThreshold())
+                .slidingWindowType(CircuitBreakerConfig.SlidingWindowType.COUNT_BASED)
+                .slidingWindowSize(properties.getSlidingWindowSize())
+                .minimumNumberOfCalls(properties.getMinimumNumberOfCalls())
+                .waitDurationInOpenState(properties.getWaitDurationInOpenState())
+                .permittedNumberOfCallsInHalfOpenState(properties.getPermittedNumberOfCallsInHalfOpenState())
+                // the upstream answering at all is not enough, a 5xx is a failed call
+                .recordResult(result -> result instanceof HttpStatusCode status && status.is5xxServerError())
+                .build();
+    }
+}
@@ -0,0 +1,12 @@
+package com.minispotify.gateway.services;
+
+/**
+ * An upstream call the gateway refused to make because the upstream is failing or already has as many
+ * calls in flight as it is allowed.
+ */
+public class UpstreamUnavailableException extends RuntimeException {
+
+    public UpstreamUnavailableException(String upstream, String reason) {
+        super("upstream " + upstream + " unavailable: " + reason, null, false, false);
+    }
+}
@@ -0,0 +1,9 @@
+-- Takes or renews the lease on a mutation queue partition. Answers 1 when ARGV[1] holds the lease
+-- afterwards and 0 when another replica does.
+-- KEYS[1] lease, ARGV[1] replica id, ARGV[2] lease duration in milliseconds
+local holder = redis.call('GET', KEYS[1])
+if holder and holder ~= ARGV[1] then
+    return 0
+end
+redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2])
+return 1
@@ -0,0 +1,27 @@
+-- Token bucket shared by every gateway replica. Takes up to ARGV[3] tokens at once so a replica can hand
+-- them out locally, and answers with {granted, milliseconds until a token is available when none was}.
+-- KEYS[1] bucket, ARGV[1] capacity, ARGV[2] tokens added per second
+local capacity = tonumber(ARGV[1])
+local rate = tonumber(ARGV[2])
+local wanted = tonumber(ARGV[3])
+
+-- the server's clock, so replicas with drifting clocks still agree
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+local state = redis.call('HMGET', KEYS[1], 'tokens', 'ts')
+local tokens = tonumber(state[1]) or capacity
+local ts = tonumber(state[2]) or now
+tokens = math.min(capacity, tokens + math.max(0, now - ts) * rate / 1000)
+
+local granted = math.min(wanted, math.floor(tokens))
+tokens = tokens - granted
+local retryAfter = 0
+if granted == 0 then
+    retryAfter = math.ceil((1 - tokens) * 1000 / rate)
+end
+
+redis.call('HSET', KEYS[1], 'tokens', tostring(tokens), 'ts', tostring(now))
+-- a bucket left alone until it is full again is the same as no bucket
+redis.call('PEXPIRE', KEYS[1], math.ceil(capacity * 1000 / rate) + 1000)
+return {granted, retryAfter}
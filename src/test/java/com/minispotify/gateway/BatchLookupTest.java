@@ -0,0 +1,187 @@
+package com.minispotify.gateway;
+
+import com.minispotify.gateway.services.RateLimiter;
+import com.minispotify.gateway.services.TokenVerificationService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "gateway.response-cache.enabled=false")
+@AutoConfigureObservability(tracing = false)
+class BatchLookupTest {
+
+    private static DisposableServer upstream;
+
+    @Autowired
+    private WebTestClient client;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @MockBean
+    private TokenVerificationService tokenVerificationService;
+
+    @MockBean
+    private RateLimiter rateLimiter;
+
+    @BeforeAll
+    static void startUpstream() {
+        upstream = HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .route(routes -> routes
+                        .get("/songs", (request, response) -> response.sendString(Mono.just("[\"all\"]")))
+                        .get("/songs/1", (request, response) -> response.sendString(Mono.just("{\"id\":\"1\"}")))
+                        .get("/songs/2", (request, response) -> response.sendString(Mono.just("{\"id\":\"2\"}")))
+                        .get("/songs/3", (request, response) -> response.status(404).send()))
+                .bindNow();
+    }
+
+    @BeforeEach
+    void allowEverything() {
+        when(rateLimiter.acquire(any(), any())).thenReturn(Mono.just(new RateLimiter.Decision(true, Duration.ZERO)));
+    }
+
+    @AfterAll
+    static void stopUpstream() {
+        upstream.disposeNow();
+    }
+
+    @DynamicPropertySource
+    static void upstreamUrls(DynamicPropertyRegistry registry) {
+        registry.add("song.service.url", () -> "http://localhost:" + upstream.port());
+    }
+
+    @Test
+    void looksUpEveryIdOnceAndReportsMissingOnes() {
+        when(tokenVerificationService.verify(any())).thenReturn(Mono.just(Optional.of("alice")));
+
+        client.get().uri("/songs?ids=1,2,3,1")
+                .header("Authorization", "Bearer valid")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().json("""
+                        {
+                          "items": {"1": {"id": "1"}, "2": {"id": "2"}},
+                          "errors": {"3": "upstream answered 404"}
+                        }
+                        """);
+    }
+
+    @Test
+    void countsEveryLookupInItsRoutesMetrics() {
+        when(tokenVerificationService.verify(any())).thenReturn(Mono.just(Optional.of("alice")));
+        long before = meterRegistry.get("gateway.route.latency").tag("route", "song").tag("phase", "total").timer().count();
+
+        client.get().uri("/songs?ids=1,2")
+                .header("Authorization", "Bearer valid")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(Void.class);
+
+        assertThat(meterRegistry.get("gateway.route.latency").tag("route", "song").tag("phase", "total").timer().count())
+                .isEqualTo(before + 2);
+    }
+
+    @Test
+    void rejectsAnEnvelopeWithoutRequests() {
+        when(tokenVerificationService.verify(any())).thenReturn(Mono.just(Optional.of("alice")));
+
+        for (String envelope : new String[]{"{}", "{\"requests\": null}", "{\"requests\": [null]}"}) {
+            client.post().uri("/batch")
+                    .header("Authorization", "Bearer valid")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(envelope)
+                    .exchange()
+                    .expectStatus().isBadRequest()
+                    .expectBody(Void.class);
+        }
+    }
+
+    @Test
+    void listWithoutIdsStillGoesToTheUpstream() {
+        when(tokenVerificationService.verify(any())).thenReturn(Mono.just(Optional.of("alice")));
+
+        client.get().uri("/songs")
+                .header("Authorization", "Bearer valid")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().json("[\"all\"]");
+    }
+
+    @Test
+    void answersEveryEntryOfAnEnvelope() {
+        when(tokenVerificationService.verify(any())).thenReturn(Mono.just(Optional.of("alice")));
+
+        client.post().uri("/batch")
+                .header("Authorization", "Bearer valid")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("""
+                        {"requests": [
+                          {"id": "a", "path": "/songs/1"},
+                          {"id": "b", "method": "DELETE", "path": "/songs/2"},
+                          {"id": "c", "path": "/nowhere"}
+                        ]}
+                        """)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().json("""
+                        {"responses": [
+                          {"id": "a", "status": 200, "body": {"id": "1"}},
+                          {"id": "b", "status": 405},
+                          {"id": "c", "status": 404}
+                        ]}
+                        """);
+    }
+
+    @Test
+    void chargesABatchOnceToTheBatchLimit() {
+        when(tokenVerificationService.verify(any())).thenReturn(Mono.just(Optional.of("alice")));
+
+        client.get().uri("/songs?ids=1,2")
+                .header("Authorization", "Bearer valid")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(Void.class);
+
+        verify(rateLimiter, times(1)).acquire("batch", "alice");
+        verify(rateLimiter, never()).acquire("song", "alice");
+
+        when(rateLimiter.acquire("batch", "alice")).thenReturn(Mono.just(new RateLimiter.Decision(false, Duration.ofMillis(1500))));
+
+        client.post().uri("/batch")
+                .header("Authorization", "Bearer valid")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("""
+                        {"requests": [{"id": "a", "path": "/songs/1"}]}
+                        """)
+                .exchange()
+                .expectStatus().isEqualTo(429)
+                .expectHeader().valueEquals("Retry-After", "2")
+                .expectBody(Void.class);
+    }
+}
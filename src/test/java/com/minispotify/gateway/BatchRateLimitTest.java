@@ -0,0 +1,115 @@
+package com.minispotify.gateway;
+
+import com.minispotify.gateway.config.BatchProperties;
+import com.minispotify.gateway.config.RateLimitProperties;
+import com.minispotify.gateway.config.RouteProperties;
+import com.minispotify.gateway.services.RateLimiter;
+import com.minispotify.gateway.services.TokenVerificationService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "gateway.response-cache.enabled=false")
+class BatchRateLimitTest {
+
+    // tokens left per bucket, standing in for the bucket script; nothing refills during the test
+    private static final Map<String, Long> buckets = new ConcurrentHashMap<>();
+    private static DisposableServer upstream;
+
+    @Autowired
+    private WebTestClient client;
+
+    @Autowired
+    private BatchProperties batchProperties;
+
+    @MockBean
+    private TokenVerificationService tokenVerificationService;
+
+    @TestConfiguration
+    static class RedisBackedLimiter {
+
+        @Bean
+        @Primary
+        RateLimiter limiterOnABucketScript(RateLimitProperties properties, RouteProperties routeProperties, MeterRegistry meterRegistry) {
+            ReactiveStringRedisTemplate redisTemplate = mock(ReactiveStringRedisTemplate.class);
+            when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList())).thenAnswer(invocation -> {
+                String key = invocation.<List<String>>getArgument(1).get(0);
+                List<String> args = invocation.getArgument(2);
+                long left = buckets.computeIfAbsent(key, k -> Long.parseLong(args.get(0)));
+                long granted = Math.min(left, Long.parseLong(args.get(2)));
+                buckets.put(key, left - granted);
+                return Flux.just(List.of(granted, granted > 0 ? 0L : 1000L));
+            });
+            return new RateLimiter(redisTemplate, properties, routeProperties, meterRegistry);
+        }
+    }
+
+    @BeforeAll
+    static void startUpstream() {
+        upstream = HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .route(routes -> routes.get("/songs/{id}", (request, response) ->
+                        response.sendString(Mono.just("{\"id\":\"" + request.param("id") + "\"}"))))
+                .bindNow();
+    }
+
+    @AfterAll
+    static void stopUpstream() {
+        upstream.disposeNow();
+    }
+
+    @DynamicPropertySource
+    static void upstreamUrls(DynamicPropertyRegistry registry) {
+        registry.add("song.service.url", () -> "http://localhost:" + upstream.port());
+    }
+
+    @Test
+    void answersEveryEntryOfAMaxSizeBatchUnderTheDefaultLimit() {
+        when(tokenVerificationService.verify(any())).thenReturn(Mono.just(Optional.of("alice")));
+        int maxItems = batchProperties.getMaxItems();
+        String ids = IntStream.rangeClosed(1, maxItems).mapToObj(String::valueOf).collect(Collectors.joining(","));
+
+        client.get().uri("/songs?ids=" + ids)
+                .header("Authorization", "Bearer valid")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.items.length()").isEqualTo(maxItems)
+                .jsonPath("$.errors").doesNotExist();
+
+        // one token out of the default burst, taken from redis as one local batch
+        assertThat(buckets).containsOnlyKeys("gateway:rate-limit:batch:alice");
+        assertThat(buckets.get("gateway:rate-limit:batch:alice")).isEqualTo(new RateLimitProperties().getDefaultLimit().getCapacity() - 10);
+    }
+}
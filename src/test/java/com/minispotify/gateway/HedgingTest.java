@@ -0,0 +1,97 @@
+package com.minispotify.gateway;
+
+import com.minispotify.gateway.services.RateLimiter;
+import com.minispotify.gateway.services.TokenVerificationService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"gateway.upstreams.playlist.hedging.enabled=true", "gateway.upstreams.playlist.hedging.delay=50ms"})
+@AutoConfigureObservability(tracing = false)
+class HedgingTest {
+
+    private static final AtomicInteger requests = new AtomicInteger();
+    private static DisposableServer first;
+    private static DisposableServer second;
+
+    @Autowired
+    private WebTestClient client;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @MockBean
+    private TokenVerificationService tokenVerificationService;
+
+    @MockBean
+    private RateLimiter rateLimiter;
+
+    @BeforeAll
+    static void startUpstreams() {
+        first = HttpServer.create().host("localhost").port(0).handle(HedgingTest::answer).bindNow();
+        second = HttpServer.create().host("localhost").port(0).handle(HedgingTest::answer).bindNow();
+    }
+
+    // whichever instance is asked first drops the connection once the hedge is out, the hedge answers later
+    private static Mono<Void> answer(HttpServerRequest request, HttpServerResponse response) {
+        if (requests.getAndIncrement() % 2 == 0) {
+            return Mono.delay(Duration.ofMillis(100))
+                    .then(Mono.fromRunnable(() -> response.withConnection(connection -> connection.dispose())));
+        }
+        return Mono.delay(Duration.ofMillis(200))
+                .then(response.header("Content-Type", "application/json").sendString(Mono.just("{\"id\":\"5\"}")).then());
+    }
+
+    @AfterAll
+    static void stopUpstreams() {
+        first.disposeNow();
+        second.disposeNow();
+    }
+
+    @DynamicPropertySource
+    static void upstreamUrls(DynamicPropertyRegistry registry) {
+        registry.add("gateway.upstreams.playlist.urls[0]", () -> "http://localhost:" + first.port());
+        registry.add("gateway.upstreams.playlist.urls[1]", () -> "http://localhost:" + second.port());
+    }
+
+    @Test
+    void waitsForAHedgeInFlightWhenTheFirstCallFailsAndCountsOnlyTheAnswerUsed() {
+        when(tokenVerificationService.verify(any())).thenReturn(Mono.just(Optional.of("alice")));
+        when(rateLimiter.acquire(any(), any())).thenReturn(Mono.just(new RateLimiter.Decision(true, Duration.ZERO)));
+        long responses = meterRegistry.get("gateway.route.latency").tag("route", "playlist").tag("phase", "upstream-response")
+                .timer().count();
+
+        client.get().uri("/playlists/5")
+                .header("Authorization", "Bearer valid")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().json("{\"id\":\"5\"}");
+
+        assertThat(requests.get()).isEqualTo(2);
+        assertThat(meterRegistry.get("gateway.route.latency").tag("route", "playlist").tag("phase", "upstream-response")
+                .timer().count()).isEqualTo(responses + 1);
+        assertThat(meterRegistry.get("gateway.upstream.hedges").tag("outcome", "won").counter().count()).isEqualTo(1);
+    }
+}
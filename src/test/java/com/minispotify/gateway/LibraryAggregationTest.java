@@ -0,0 +1,118 @@
+package com.minispotify.gateway;
+
+import com.minispotify.gateway.services.TokenVerificationService;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"gateway.library.part-timeout=500ms", "gateway.response-cache.enabled=false"})
+class LibraryAggregationTest {
+
+    private static final List<String> oddUserRequests = new CopyOnWriteArrayList<>();
+    private static DisposableServer upstream;
+
+    @Autowired
+    private WebTestClient client;
+
+    @MockBean
+    private TokenVerificationService tokenVerificationService;
+
+    @BeforeAll
+    static void startUpstream() {
+        upstream = HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .route(routes -> routes
+                        .get("/users/1/playlists", (request, response) -> response.sendString(Mono.just("[{\"id\":\"p1\"}]")))
+                        .get("/users/1/songs", (request, response) -> response.sendString(Mono.just("[\"10\",\"11\"]")))
+                        .get("/users/1/artists", (request, response) -> response.sendString(
+                                Mono.delay(Duration.ofSeconds(2)).thenReturn("[\"20\"]")))
+                        .get("/songs/10", (request, response) -> response.sendString(Mono.just("{\"id\":\"10\",\"title\":\"Song\"}")))
+                        .get("/songs/11", (request, response) -> response.status(500).send())
+                        .route(request -> request.uri().startsWith("/users/a%2F"), (request, response) -> {
+                            oddUserRequests.add(request.uri());
+                            return response.sendString(Mono.just("[]"));
+                        }))
+                .bindNow();
+    }
+
+    @AfterAll
+    static void stopUpstream() {
+        upstream.disposeNow();
+    }
+
+    @DynamicPropertySource
+    static void upstreamUrls(DynamicPropertyRegistry registry) {
+        String url = "http://localhost:" + upstream.port();
+        registry.add("artist.service.url", () -> url);
+        registry.add("song.service.url", () -> url);
+        registry.add("user.service.url", () -> url);
+    }
+
+    @Test
+    void mergesPartsHydratesIdsAndReportsWhatIsMissing() {
+        when(tokenVerificationService.verify(any())).thenReturn(Mono.just(Optional.of("alice")));
+
+        client.get().uri("/users/1/library")
+                .header("Authorization", "Bearer valid")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().json("""
+                        {
+                          "userId": "1",
+                          "playlists": [{"id": "p1"}],
+                          "songs": [{"id": "10", "title": "Song"}, "11"],
+                          "partial": true,
+                          "errors": {
+                            "songs": "1 of 2 referenced entries could not be loaded",
+                            "artists": "timed out"
+                          }
+                        }
+                        """);
+    }
+
+    @Test
+    void keepsAnEncodedSlashInTheUserIdWithinItsSegment() {
+        when(tokenVerificationService.verify(any())).thenReturn(Mono.just(Optional.of("alice")));
+
+        client.get().uri(builder -> builder.path("/users/{userId}/library").build("a/b"))
+                .header("Authorization", "Bearer valid")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().json("""
+                        {"userId": "a/b", "playlists": [], "songs": [], "artists": [], "partial": false}
+                        """);
+        assertThat(oddUserRequests).containsExactlyInAnyOrder(
+                "/users/a%2Fb/playlists", "/users/a%2Fb/songs", "/users/a%2Fb/artists");
+    }
+
+    @Test
+    void rejectsUnknownTokens() {
+        when(tokenVerificationService.verify(any())).thenReturn(Mono.just(Optional.empty()));
+
+        client.get().uri("/users/1/library")
+                .header("Authorization", "Bearer invalid")
+                .exchange()
+                .expectStatus().isUnauthorized()
+                .expectBody(Void.class);
+    }
+}
@@ -0,0 +1,118 @@
+package com.minispotify.gateway;
+
+import com.minispotify.gateway.services.TokenVerificationService;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * Fires more concurrent requests than a default servlet container has worker threads (200) at a slow
+ * upstream and checks that the gateway keeps all of them in flight at once instead of queueing them.
+ * Uses a route without caching or coalescing so every request really reaches the upstream.
+ */
+@Slf4j
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class ProxyConcurrencyTest {
+
+    private static final int CONCURRENT_REQUESTS = 400;
+    private static final Duration UPSTREAM_DELAY = Duration.ofSeconds(1);
+
+    private static final AtomicInteger inFlight = new AtomicInteger();
+    private static final AtomicInteger peakInFlight = new AtomicInteger();
+    private static DisposableServer upstream;
+
+    @LocalServerPort
+    private int port;
+
+    @MockBean
+    private TokenVerificationService tokenVerificationService;
+
+    @BeforeAll
+    static void startUpstream() {
+        upstream = HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .route(routes -> routes.get("/users", (request, response) -> {
+                    peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    return response.header("Content-Type", "application/json")
+                            .sendString(Mono.delay(UPSTREAM_DELAY).thenReturn("[]"))
+                            .then()
+                            .doFinally(signal -> inFlight.decrementAndGet());
+                }))
+                .bindNow();
+    }
+
+    @AfterAll
+    static void stopUpstream() {
+        upstream.disposeNow();
+    }
+
+    @DynamicPropertySource
+    static void upstreamUrls(DynamicPropertyRegistry registry) {
+        registry.add("user.service.url", () -> "http://localhost:" + upstream.port());
+        registry.add("gateway.upstreams.user.pool.max-connections", () -> CONCURRENT_REQUESTS);
+        registry.add("gateway.upstreams.user.bulkhead.max-concurrent-calls", () -> CONCURRENT_REQUESTS);
+        // measures raw proxy capacity, not how the adaptive limit and the breaker react to a cold burst
+        registry.add("gateway.upstreams.user.concurrency-limit.enabled", () -> false);
+        registry.add("gateway.upstreams.user.circuit-breaker.enabled", () -> false);
+    }
+
+    @Test
+    void keepsMoreRequestsInFlightThanServletWorkerThreads() {
+        when(tokenVerificationService.verify(any())).thenReturn(Mono.just(Optional.of("token")));
+
+        ConnectionProvider connections = ConnectionProvider.builder("load-test").maxConnections(CONCURRENT_REQUESTS).build();
+        WebClient client = WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create(connections)))
+                .baseUrl("http://localhost:" + port)
+                .build();
+
+        // warm up the jit and fill both connection pools so the measured round only sees steady-state behaviour
+        fire(client, CONCURRENT_REQUESTS);
+        peakInFlight.set(0);
+
+        long start = System.nanoTime();
+        List<ResponseEntity<String>> responses = fire(client, CONCURRENT_REQUESTS);
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+        connections.dispose();
+
+        log.info("{} requests, peak {} in flight upstream, {} ms total", CONCURRENT_REQUESTS, peakInFlight.get(),
+                elapsed.toMillis());
+
+        assertThat(responses).hasSize(CONCURRENT_REQUESTS).allMatch(response -> response.getStatusCode().is2xxSuccessful());
+        // more than a servlet container's worker threads were waiting on the upstream at the same time
+        assertThat(peakInFlight.get()).isGreaterThan(200);
+    }
+
+    private static List<ResponseEntity<String>> fire(WebClient client, int requests) {
+        return Flux.range(0, requests)
+                .flatMap(i -> client.get().uri("/users").header("Authorization", "Bearer token")
+                        .retrieve().toEntity(String.class), requests)
+                .collectList()
+                .block(Duration.ofSeconds(30));
+    }
+}
@@ -0,0 +1,317 @@
+package com.minispotify.gateway;
+
+import com.minispotify.gateway.services.MutationQueue;
+import com.minispotify.gateway.services.RateLimiter;
+import com.minispotify.gateway.services.RouteForwarder;
+import com.minispotify.gateway.services.TokenVerificationService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureObservability(tracing = false)
+class RouteForwardingTest {
+
+    private static final String SONGS = "[" + "{\"title\":\"song\"},".repeat(200) + "{\"title\":\"last\"}]";
+
+    private static DisposableServer upstream;
+
+    @Autowired
+    private WebTestClient client;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @MockBean
+    private TokenVerificationService tokenVerificationService;
+
+    @MockBean
+    private RateLimiter rateLimiter;
+
+    @MockBean
+    private MutationQueue mutationQueue;
+
+    @BeforeAll
+    static void startUpstream() {
+        upstream = HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .route(routes -> routes
+                        .get("/artists/{artistId}", (request, response) -> response
+                                .header("Content-Type", "application/json")
+                                .header("X-Upstream", "artist")
+                                .sendString(Mono.just("{\"id\":\"" + request.param("artistId") + "\",\"uri\":\"" + request.uri()
+                                        + "\",\"client\":\"" + request.requestHeaders().get("X-Client")
+                                        + "\",\"principal\":\"" + request.requestHeaders().get(RouteForwarder.PRINCIPAL_HEADER) + "\"}")))
+                        .get("/songs", (request, response) -> {
+                            // answers in gzip only when asked to, like a typical upstream
+                            boolean gzip = request.requestHeaders().contains("Accept-Encoding", "gzip", true);
+                            response.header("Content-Type", "application/json");
+                            if (gzip) {
+                                response.header("Content-Encoding", "gzip");
+                            }
+                            return response.sendByteArray(Mono.just(gzip ? gzip(SONGS.getBytes()) : SONGS.getBytes()));
+                        })
+                        .get("/playlists/{playlistId}", (request, response) -> {
+                            boolean gzip = request.requestHeaders().contains("Accept-Encoding", "gzip", true);
+                            response.header("Content-Type", "application/json");
+                            if (gzip) {
+                                response.header("Content-Encoding", "gzip");
+                            }
+                            return response.sendByteArray(Mono.just(gzip ? gzip(SONGS.getBytes()) : SONGS.getBytes()));
+                        })
+                        .post("/songs", (request, response) -> response
+                                .status(201)
+                                .send(request.receive().retain()))
+                        .delete("/playlists/{playlistId}", (request, response) -> response.status(404).send())
+                        .post("/users/{userId}/songs/{songId}", (request, response) -> response
+                                .status(201)
+                                .send(request.receive().retain()))
+                        .post("/authentication-service/authenticate", (request, response) -> response.sendString(Mono.just("jwt"))))
+                .bindNow();
+    }
+
+    @AfterAll
+    static void stopUpstream() {
+        upstream.disposeNow();
+    }
+
+    @DynamicPropertySource
+    static void upstreamUrls(DynamicPropertyRegistry registry) {
+        String url = "http://localhost:" + upstream.port();
+        registry.add("artist.service.url", () -> url);
+        registry.add("song.service.url", () -> url);
+        registry.add("playlist.service.url", () -> url);
+        registry.add("user.service.url", () -> url);
+        registry.add("authentication.service.url", () -> url + "/authentication-service");
+    }
+
+    @BeforeEach
+    void tokens() {
+        when(tokenVerificationService.verify(any())).thenReturn(Mono.just(Optional.empty()));
+        when(tokenVerificationService.verify(eq("Bearer valid"))).thenReturn(Mono.just(Optional.of("valid")));
+        when(rateLimiter.acquire(any(), any())).thenReturn(Mono.just(new RateLimiter.Decision(true, Duration.ZERO)));
+    }
+
+    @Test
+    void rewritesPathVariablesAndPassesQueryAndHeadersThrough() {
+        client.get().uri("/artists/42?expand=songs")
+                .header("Authorization", "Bearer valid")
+                .header("X-Client", "web")
+                .header(RouteForwarder.PRINCIPAL_HEADER, "someone-else")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("X-Upstream", "artist")
+                .expectBody().json("{\"id\":\"42\",\"uri\":\"/artists/42?expand=songs\",\"client\":\"web\",\"principal\":\"valid\"}");
+    }
+
+    @Test
+    void streamsRequestBodyAndPassesUpstreamStatusThrough() {
+        client.post().uri("/songs")
+                .header("Authorization", "Bearer valid")
+                .bodyValue("{\"title\":\"song\"}")
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(String.class).isEqualTo("{\"title\":\"song\"}");
+
+        client.delete().uri("/playlists/7")
+                .header("Authorization", "Bearer valid")
+                .exchange()
+                .expectStatus().isNotFound()
+                .expectBody(Void.class);
+    }
+
+    @Test
+    void rejectsUnknownTokensOnEveryMethod() {
+        client.get().uri("/artists/42").header("Authorization", "Bearer invalid")
+                .exchange()
+                .expectStatus().isUnauthorized()
+                .expectBody(Void.class);
+        client.delete().uri("/playlists/7").header("Authorization", "Bearer invalid")
+                .exchange()
+                .expectStatus().isUnauthorized()
+                .expectBody(Void.class);
+    }
+
+    @Test
+    void forwardsUnauthenticatedRoutesToTheirRewrittenPath() {
+        client.post().uri("/login")
+                .bodyValue("{\"username\":\"alice\",\"password\":\"secret\"}")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo("jwt");
+    }
+
+    @Test
+    void turnsAwayPrincipalsOverTheirLimitWithRetryAfter() {
+        when(rateLimiter.acquire(eq("artist"), eq("valid")))
+                .thenReturn(Mono.just(new RateLimiter.Decision(false, Duration.ofMillis(1200))));
+
+        client.get().uri("/artists/42").header("Authorization", "Bearer valid")
+                .exchange()
+                .expectStatus().isEqualTo(429)
+                .expectHeader().valueEquals("Retry-After", "2")
+                .expectBody(Void.class);
+        client.post().uri("/login")
+                .bodyValue("{}")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(Void.class);
+    }
+
+    @Test
+    void inflatesGzipFromUpstreamsAndGzipsForClientsThatAcceptIt() throws IOException {
+        // the default test client inflates gzip itself, this one leaves the body as the gateway sent it
+        WebTestClient raw = WebTestClient.bindToServer(new ReactorClientHttpConnector(HttpClient.create()))
+                .baseUrl("http://localhost:" + port)
+                .build();
+        byte[] gzipped = raw.get().uri("/songs")
+                .header("Authorization", "Bearer valid")
+                .header("Accept-Encoding", "br;q=1, gzip;q=0.8")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("Content-Encoding", "gzip")
+                .expectHeader().valueEquals("Vary", "Accept-Encoding")
+                .expectBody(byte[].class).returnResult().getResponseBody();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+            assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo(SONGS);
+        }
+
+        raw.get().uri("/songs")
+                .header("Authorization", "Bearer valid")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("X-Gateway-Cache", "HIT")
+                .expectHeader().doesNotExist("Content-Encoding")
+                .expectHeader().valueEquals("Vary", "Accept-Encoding")
+                .expectBody(String.class).isEqualTo(SONGS);
+    }
+
+    @Test
+    void relaysTheUpstreamsGzipOfACoalescedResponseInsteadOfCompressingItAgain() {
+        WebTestClient raw = WebTestClient.bindToServer(new ReactorClientHttpConnector(HttpClient.create()))
+                .baseUrl("http://localhost:" + port)
+                .build();
+        double compressed = compressionResponses("compressed");
+        double passedThrough = compressionResponses("passthrough");
+
+        // playlist coalesces without caching its reads
+        raw.get().uri("/playlists/5")
+                .header("Authorization", "Bearer valid")
+                .header("Accept-Encoding", "gzip")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("Content-Encoding", "gzip")
+                .expectBody(byte[].class).isEqualTo(gzip(SONGS.getBytes()));
+
+        assertThat(compressionResponses("compressed")).isEqualTo(compressed);
+        assertThat(compressionResponses("passthrough")).isEqualTo(passedThrough + 1);
+    }
+
+    @Test
+    void queuesLibraryWritesAndRefusesThemWhenTheQueueIsUnavailable() {
+        when(mutationQueue.queues(any(), any())).thenReturn(true);
+        when(mutationQueue.maxBodySize()).thenReturn(64 * 1024);
+        when(mutationQueue.enqueue(any(), any(), any(), eq("valid"))).thenReturn(Mono.just("3-1700000000000-0"));
+
+        client.post().uri("/users/1/songs/10")
+                .header("Authorization", "Bearer valid")
+                .bodyValue("{\"liked\":true}")
+                .exchange()
+                .expectStatus().isAccepted()
+                .expectHeader().valueEquals(MutationQueue.ID_HEADER, "3-1700000000000-0")
+                .expectBody(Void.class);
+
+        when(mutationQueue.enqueue(any(), any(), any(), eq("valid"))).thenReturn(Mono.error(new IllegalStateException("redis down")));
+
+        client.post().uri("/users/1/songs/10")
+                .header("Authorization", "Bearer valid")
+                .bodyValue("{\"liked\":true}")
+                .exchange()
+                .expectStatus().isEqualTo(503)
+                .expectHeader().valueEquals("Retry-After", "1")
+                .expectBody(Void.class);
+    }
+
+    @Test
+    void answersUnknownRoutesAndMethods() {
+        client.get().uri("/albums").header("Authorization", "Bearer valid")
+                .exchange()
+                .expectStatus().isNotFound()
+                .expectBody(Void.class);
+        client.patch().uri("/artists/42").header("Authorization", "Bearer valid")
+                .exchange()
+                .expectStatus().isEqualTo(405)
+                .expectBody(Void.class);
+    }
+
+    @Test
+    void publishesPerRouteAndPerPhaseMetricsForScraping() {
+        client.post().uri("/songs")
+                .header("Authorization", "Bearer valid")
+                .bodyValue("{\"title\":\"song\"}")
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(Void.class);
+
+        // a histogram for every route and phase makes for a large scrape
+        client.mutate().codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(16 * 1024 * 1024)).build()
+                .get().uri("/actuator/prometheus")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).value(scrape -> assertThat(scrape)
+                        .contains("gateway_route_latency_seconds_bucket{phase=\"verify\",route=\"songs\"")
+                        .contains("gateway_route_latency_seconds_count{phase=\"upstream-response\",route=\"songs\"")
+                        .contains("gateway_route_latency_seconds_count{phase=\"body-copy\",route=\"songs\"")
+                        .contains("gateway_route_in_flight{route=\"songs\"")
+                        .contains("gateway_upstream_responses_total{route=\"songs\",status=\"2xx\",upstream=\"song\"")
+                        .contains("gateway_upstream_connect_seconds_count{upstream=\"song\""));
+    }
+
+    private double compressionResponses(String outcome) {
+        return meterRegistry.get("gateway.compression.responses").tag("route", "playlist").tag("outcome", outcome).counter().count();
+    }
+
+    private static byte[] gzip(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
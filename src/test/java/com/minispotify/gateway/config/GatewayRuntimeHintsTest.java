@@ -0,0 +1,33 @@
+package com.minispotify.gateway.config;
+
+import com.minispotify.gateway.requests.BatchRequest;
+import com.minispotify.gateway.services.CachedResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GatewayRuntimeHintsTest {
+
+    private final RuntimeHints hints = new RuntimeHints();
+
+    GatewayRuntimeHintsTest() {
+        new GatewayRuntimeHints().registerHints(hints, getClass().getClassLoader());
+    }
+
+    @Test
+    void includesTheLuaScripts() {
+        assertThat(RuntimeHintsPredicates.resource().forResource("scripts/token-bucket.lua")).accepts(hints);
+        assertThat(RuntimeHintsPredicates.resource().forResource("scripts/partition-lease.lua")).accepts(hints);
+    }
+
+    @Test
+    void letsJacksonBindCacheEntriesAndBatches() {
+        assertThat(RuntimeHintsPredicates.reflection().onType(CachedResponse.class)
+                .withMemberCategory(MemberCategory.INVOKE_DECLARED_CONSTRUCTORS)).accepts(hints);
+        assertThat(RuntimeHintsPredicates.reflection().onType(BatchRequest.Item.class)
+                .withMemberCategory(MemberCategory.INVOKE_DECLARED_CONSTRUCTORS)).accepts(hints);
+    }
+}
@@ -0,0 +1,202 @@
+package com.minispotify.gateway.services;
+
+import com.minispotify.gateway.config.AuthProperties;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ReactiveZSetOperations;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class JwtTokenVerifierTest {
+
+    private static final String SECRET = "a-test-secret-that-is-at-least-32-bytes";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void acceptsAValidTokenAndHandsOnItsSubject() throws JOSEException {
+        JwtTokenVerifier verifier = verifier(hmac());
+
+        assertThat(verifier.verify(hmacToken(claims("alice", "t1", 60)))).contains("alice");
+        assertThat(meterRegistry.get("gateway.auth.jwt.verifications").tag("outcome", "accepted").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void rejectsExpiredForeignAndMalformedTokens() throws JOSEException {
+        JwtTokenVerifier verifier = verifier(hmac());
+
+        assertThat(verifier.verify(hmacToken(claims("alice", "t1", -120)))).isEmpty();
+        assertThat(verifier.verify(hmacToken(new JWTClaimsSet.Builder(claims("alice", "t1", 60)).issuer("someone-else").build()))).isEmpty();
+        String signedElsewhere = sign(claims("alice", "t1", 60), new MACSigner("another-secret-of-at-least-32-bytes!!"));
+        assertThat(verifier.verify(signedElsewhere)).isEmpty();
+        assertThat(verifier.verify("not-a-jwt")).isEmpty();
+        assertThat(meterRegistry.get("gateway.auth.jwt.verifications").tag("outcome", "rejected").counter().count()).isEqualTo(4);
+    }
+
+    @Test
+    void rejectsRevokedTokenIds() throws JOSEException {
+        JwtTokenVerifier verifier = verifier(hmac());
+        String token = hmacToken(claims("alice", "t1", 60));
+
+        verifier.revoke("t1");
+
+        assertThat(verifier.verify(token)).isEmpty();
+        assertThat(verifier.verify(hmacToken(claims("alice", "t2", 60)))).contains("alice");
+    }
+
+    @Test
+    void forgetsRevokedTokenIdsOnceTheirTokensHaveExpired() throws Exception {
+        AuthProperties properties = hmac();
+        properties.getJwt().setClockSkew(Duration.ofSeconds(1));
+        ReactiveStringRedisTemplate redisTemplate = mock(ReactiveStringRedisTemplate.class);
+        @SuppressWarnings("unchecked")
+        ReactiveZSetOperations<String, String> revokedSet = mock(ReactiveZSetOperations.class);
+        when(redisTemplate.opsForZSet()).thenReturn(revokedSet);
+        when(revokedSet.rangeByScoreWithScores(anyString(), any())).thenReturn(Flux.empty());
+        JwtTokenVerifier verifier = new JwtTokenVerifier(properties, redisTemplate, mock(RedisSubscriptions.class),
+                WebClient.builder(), meterRegistry);
+        long now = Instant.now().getEpochSecond();
+
+        verifier.revoke("expired " + (now - 10));
+        verifier.revoke("current " + (now + 60));
+        // published without its expiry, which the token brings along when it is presented
+        verifier.revoke("presented");
+        verifier.revoke("never-presented");
+        assertThat(verifier.verify(hmacToken(claims("alice", "presented", 1)))).isEmpty();
+        verifier.syncRevocations().block();
+
+        assertThat(meterRegistry.get("gateway.auth.jwt.revoked").gauge().value()).isEqualTo(3);
+        Thread.sleep(3000);
+        verifier.syncRevocations().block();
+
+        assertThat(meterRegistry.get("gateway.auth.jwt.revoked").gauge().value()).isEqualTo(2);
+        assertThat(verifier.verify(hmacToken(claims("alice", "current", 60)))).isEmpty();
+        assertThat(verifier.verify(hmacToken(claims("alice", "never-presented", 60)))).isEmpty();
+    }
+
+    @Test
+    void verifiesAgainstTheFetchedJwkSet() throws JOSEException {
+        RSAKey key = new RSAKeyGenerator(2048).keyID("k1").generate();
+        DisposableServer jwks = jwks(key, new AtomicInteger());
+        try {
+            JwtTokenVerifier verifier = verifier(jwks(jwks));
+            String token = rsaToken(key, claims("bob", "t1", 60));
+
+            assertThat(verifier.keysLoaded()).isFalse();
+            assertThat(new JwksHealthIndicator(verifier).health().getStatus()).isEqualTo(Status.OUT_OF_SERVICE);
+            verifier.refreshKeys().block();
+            assertThat(verifier.verify(token)).contains("bob");
+            assertThat(new JwksHealthIndicator(verifier).health().getStatus()).isEqualTo(Status.UP);
+        } finally {
+            jwks.disposeNow();
+        }
+    }
+
+    @Test
+    void refreshesTheJwkSetEarlyForAnUnknownKeyButNotForEveryToken() throws Exception {
+        RSAKey key = new RSAKeyGenerator(2048).keyID("k1").generate();
+        AtomicInteger fetches = new AtomicInteger();
+        DisposableServer jwks = jwks(key, fetches);
+        try {
+            JwtTokenVerifier verifier = verifier(jwks(jwks));
+            String token = rsaToken(key, claims("bob", "t1", 60));
+
+            // rejected while the key is unknown, the set is fetched in the background
+            assertThat(verifier.verify(token)).isEmpty();
+            assertThat(verifier.verify(token)).isEmpty();
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (verifier.verify(token).isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertThat(verifier.verify(token)).contains("bob");
+
+            RSAKey unknown = new RSAKeyGenerator(2048).keyID("k2").generate();
+            assertThat(verifier.verify(rsaToken(unknown, claims("mallory", "t2", 60)))).isEmpty();
+            assertThat(fetches.get()).isEqualTo(1);
+        } finally {
+            jwks.disposeNow();
+        }
+    }
+
+    private static DisposableServer jwks(RSAKey key, AtomicInteger fetches) {
+        return HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .handle((request, response) -> {
+                    fetches.incrementAndGet();
+                    return response.sendString(Mono.just(new JWKSet(key).toPublicJWKSet().toString()));
+                })
+                .bindNow();
+    }
+
+    private static AuthProperties jwks(DisposableServer jwks) {
+        AuthProperties properties = new AuthProperties();
+        properties.setMode(AuthProperties.Mode.JWT);
+        properties.getJwt().setJwksUri("http://localhost:" + jwks.port() + "/.well-known/jwks.json");
+        return properties;
+    }
+
+    private static String rsaToken(RSAKey key, JWTClaimsSet claims) throws JOSEException {
+        SignedJWT signed = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(), claims);
+        signed.sign(new RSASSASigner(key));
+        return signed.serialize();
+    }
+
+    private JwtTokenVerifier verifier(AuthProperties properties) {
+        return new JwtTokenVerifier(properties, mock(ReactiveStringRedisTemplate.class), mock(RedisSubscriptions.class),
+                WebClient.builder(), meterRegistry);
+    }
+
+    private static AuthProperties hmac() {
+        AuthProperties properties = new AuthProperties();
+        properties.setMode(AuthProperties.Mode.JWT);
+        properties.getJwt().setSecret(SECRET);
+        properties.getJwt().setIssuer("authentication-service");
+        return properties;
+    }
+
+    private static JWTClaimsSet claims(String subject, String jti, long expiresInSeconds) {
+        return new JWTClaimsSet.Builder()
+                .subject(subject)
+                .jwtID(jti)
+                .issuer("authentication-service")
+                .expirationTime(Date.from(Instant.now().plusSeconds(expiresInSeconds)))
+                .build();
+    }
+
+    private static String hmacToken(JWTClaimsSet claims) throws JOSEException {
+        return sign(claims, new MACSigner(SECRET));
+    }
+
+    private static String sign(JWTClaimsSet claims, MACSigner signer) throws JOSEException {
+        SignedJWT jwt = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), claims);
+        jwt.sign(signer);
+        return jwt.serialize();
+    }
+}
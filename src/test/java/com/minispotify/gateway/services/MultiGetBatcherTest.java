@@ -0,0 +1,79 @@
+package com.minispotify.gateway.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ReactiveValueOperations;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MultiGetBatcherTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ReactiveStringRedisTemplate redisTemplate = mock(ReactiveStringRedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final ReactiveValueOperations<String, String> values = mock(ReactiveValueOperations.class);
+    private final List<List<String>> mgets = new CopyOnWriteArrayList<>();
+    private final List<Sinks.One<List<String>>> replies = new CopyOnWriteArrayList<>();
+
+    MultiGetBatcherTest() {
+        when(redisTemplate.opsForValue()).thenReturn(values);
+        when(values.multiGet(anyList())).thenAnswer(invocation -> {
+            mgets.add(new ArrayList<>(invocation.getArgument(0)));
+            Sinks.One<List<String>> reply = Sinks.one();
+            replies.add(reply);
+            return reply.asMono();
+        });
+    }
+
+    @Test
+    void sendsWhatQueuedUpWhileAnMgetWasInFlightAsTheNextMget() {
+        MultiGetBatcher batcher = new MultiGetBatcher(redisTemplate, 128, 1, "test", meterRegistry);
+
+        List<String> first = new ArrayList<>();
+        batcher.get("a").subscribe(first::add);
+        List<String> rest = new CopyOnWriteArrayList<>();
+        for (String key : List.of("b", "c", "d")) {
+            batcher.get(key).defaultIfEmpty("none:" + key).subscribe(rest::add);
+        }
+
+        assertThat(mgets).containsExactly(List.of("a"));
+        replies.get(0).tryEmitValue(List.of("user-a"));
+
+        assertThat(first).containsExactly("user-a");
+        assertThat(mgets).containsExactly(List.of("a"), List.of("b", "c", "d"));
+        replies.get(1).tryEmitValue(Arrays.asList("user-b", null, ""));
+
+        assertThat(rest).containsExactly("user-b", "none:c", "none:d");
+        assertThat(meterRegistry.get("test.batch-size").summary().max()).isEqualTo(3);
+    }
+
+    @Test
+    void failsEveryLookupOfAFailedMget() {
+        MultiGetBatcher batcher = new MultiGetBatcher(redisTemplate, 2, 1, "test", meterRegistry);
+
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        batcher.get("a").subscribe(value -> { }, errors::add);
+        batcher.get("b").subscribe(value -> { }, errors::add);
+        batcher.get("c").subscribe(value -> { }, errors::add);
+        batcher.get("d").subscribe(value -> { }, errors::add);
+
+        replies.get(0).tryEmitError(new RedisConnectionFailureException("down"));
+        assertThat(mgets).containsExactly(List.of("a"), List.of("b", "c"));
+        replies.get(1).tryEmitError(new RedisConnectionFailureException("down"));
+        assertThat(mgets).containsExactly(List.of("a"), List.of("b", "c"), List.of("d"));
+        replies.get(2).tryEmitValue(List.of("user-d"));
+
+        assertThat(errors).hasSize(3);
+    }
+}
@@ -0,0 +1,243 @@
+package com.minispotify.gateway.services;
+
+import com.minispotify.gateway.config.AsyncWriteProperties;
+import com.minispotify.gateway.config.RouteProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.ReactiveStreamOperations;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.web.util.pattern.PathPatternParser;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MutationQueueTest {
+
+    private static final String STREAM = "gateway:mutations:0";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ReactiveStringRedisTemplate redisTemplate = mock(ReactiveStringRedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final ReactiveStreamOperations<String, String, String> streams = mock(ReactiveStreamOperations.class);
+    private final RouteForwarder routeForwarder = mock(RouteForwarder.class);
+    private final RouteTable routeTable = mock(RouteTable.class);
+    private final RouteTable.Route route = new RouteTable.Route("user-song", Set.of(HttpMethod.POST, HttpMethod.DELETE),
+            PathPatternParser.defaultInstance.parse("/users/{userId}/songs/{songId}"), "user", null, true, null,
+            RouteProperties.Coalescing.NONE, true);
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private final AsyncWriteProperties properties = new AsyncWriteProperties();
+    private final MutationQueue mutationQueue;
+
+    MutationQueueTest() {
+        properties.setEnabled(true);
+        properties.setPartitions(1);
+        properties.setRetryBackoff(Duration.ofMillis(1));
+        properties.setMaxAttempts(3);
+        doReturn(streams).when(redisTemplate).opsForStream();
+        leaseAnswers(1L);
+        when(streams.createGroup(anyString(), any(ReadOffset.class), anyString())).thenReturn(Mono.just("OK"));
+        when(streams.acknowledge(anyString(), anyString(), any(RecordId[].class))).thenReturn(Mono.just(1L));
+        when(streams.delete(anyString(), any(RecordId[].class))).thenReturn(Mono.just(1L));
+        when(streams.add(anyString(), anyMap())).thenReturn(Mono.just(RecordId.of("9-0")));
+        when(streams.trim(anyString(), anyLong(), anyBoolean())).thenReturn(Mono.just(0L));
+        when(routeTable.route("user-song")).thenReturn(Optional.of(route));
+        mutationQueue = new MutationQueue(properties, redisTemplate, routeForwarder, routeTable, meterRegistry);
+    }
+
+    @Test
+    void appliesEachPrincipalsWritesInOrderAndRetriesUpstreamFailures() {
+        queued(write("1-0", "alice", "/users/alice/songs/1"),
+                write("2-0", "bob", "/users/bob/songs/2"),
+                write("3-0", "alice", "/users/alice/songs/3"));
+        Queue<HttpStatusCode> firstAnswers = new ArrayDeque<>(List.of(HttpStatus.SERVICE_UNAVAILABLE, HttpStatus.NO_CONTENT));
+        upstreamAnswers(path -> path.endsWith("/1") && !firstAnswers.isEmpty() ? firstAnswers.poll() : HttpStatus.NO_CONTENT);
+
+        assertThat(mutationQueue.drain(0).block()).isEqualTo(3);
+
+        // alice's second write waited for her first one to go through
+        assertThat(sent.stream().filter(path -> path.startsWith("/users/alice")))
+                .containsExactly("/users/alice/songs/1", "/users/alice/songs/1", "/users/alice/songs/3");
+        verify(streams).acknowledge(STREAM, "gateway", RecordId.of("1-0"), RecordId.of("2-0"), RecordId.of("3-0"));
+        verify(streams).delete(STREAM, RecordId.of("1-0"), RecordId.of("2-0"), RecordId.of("3-0"));
+        assertThat(meterRegistry.get("gateway.mutations").tag("outcome", "applied").counter().count()).isEqualTo(3);
+        assertThat(meterRegistry.get("gateway.mutations").tag("outcome", "retried").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void movesWritesTheUpstreamRefusesOrKeepsFailingToTheDeadLetterStream() {
+        queued(write("1-0", "alice", "/users/alice/songs/1"), write("2-0", "bob", "/users/bob/songs/2"));
+        upstreamAnswers(path -> path.endsWith("/1") ? HttpStatus.BAD_REQUEST : HttpStatus.BAD_GATEWAY);
+
+        assertThat(mutationQueue.drain(0).block()).isEqualTo(2);
+
+        // the refused write is sent once, the failing one as often as attempts allow
+        assertThat(sent).filteredOn(path -> path.endsWith("/1")).hasSize(1);
+        assertThat(sent).filteredOn(path -> path.endsWith("/2")).hasSize(3);
+        verify(streams).add(eq("gateway:mutations:dead"), ArgumentMatchers.<Map<String, String>>argThat(fields ->
+                "1-0".equals(fields.get("id")) && "upstream answered 400".equals(fields.get("error"))
+                        && !fields.containsKey("header:Authorization")));
+        verify(streams).add(eq("gateway:mutations:dead"), ArgumentMatchers.<Map<String, String>>argThat(fields -> "2-0".equals(fields.get("id"))));
+        verify(streams).acknowledge(STREAM, "gateway", RecordId.of("1-0"), RecordId.of("2-0"));
+        verify(streams, times(2)).trim("gateway:mutations:dead", 10_000, true);
+        assertThat(meterRegistry.get("gateway.mutations").tag("outcome", "rejected").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("gateway.mutations").tag("outcome", "failed").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void leavesPartitionsLeasedByAnotherReplicaAlone() {
+        leaseAnswers(0L);
+
+        assertThat(mutationQueue.drain(0).block()).isZero();
+
+        anyRead(verify(streams, never()));
+    }
+
+    @Test
+    void leavesABatchUnacknowledgedOnceTheLeaseIsLost() {
+        queued(write("1-0", "alice", "/users/alice/songs/1"));
+        upstreamAnswers(path -> HttpStatus.NO_CONTENT);
+        // held when the batch is read, taken over by another replica by the time it was applied
+        leaseAnswers(1L, 0L);
+
+        assertThatThrownBy(() -> mutationQueue.drain(0).block()).hasMessageContaining("lost the lease");
+
+        verify(streams, never()).acknowledge(anyString(), anyString(), any(RecordId[].class));
+        verify(streams, never()).delete(anyString(), any(RecordId[].class));
+    }
+
+    @Test
+    void renewsTheLeaseWhileABatchRunsAndStopsItWhenTheRenewalFails() {
+        properties.setPartitionLease(Duration.ofMillis(60));
+        queued(write("1-0", "alice", "/users/alice/songs/1"), write("2-0", "alice", "/users/alice/songs/2"));
+        when(routeForwarder.send(eq(route), eq(HttpMethod.POST), anyString(), any(), any(), any())).thenAnswer(invocation -> {
+            sent.add(invocation.getArgument(2));
+            return Mono.delay(Duration.ofMillis(100)).thenReturn(HttpStatus.NO_CONTENT);
+        });
+        // taken, renewed once, then held by another replica
+        leaseAnswers(1L, 1L, 0L);
+
+        assertThatThrownBy(() -> mutationQueue.drain(0).block()).hasMessageContaining("lost the lease");
+
+        // alice's second write is never sent alongside the new holder's attempt
+        assertThat(sent).containsExactly("/users/alice/songs/1");
+        verify(streams, never()).acknowledge(anyString(), anyString(), any(RecordId[].class));
+    }
+
+    @Test
+    void storesWritesWithoutTheClientsCredentials() {
+        MockServerHttpRequest request = MockServerHttpRequest.post("/users/alice/songs/1")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer alice")
+                .header(HttpHeaders.COOKIE, "session=1")
+                .header("X-Client", "web")
+                .header(RouteForwarder.PRINCIPAL_HEADER, "bob")
+                .build();
+        RouteTable.RouteMatch match = new RouteTable.RouteMatch(route, Map.of("userId", "alice", "songId", "1"));
+
+        assertThat(mutationQueue.enqueue(match, request, new byte[0], "alice").block()).isEqualTo("0-9-0");
+
+        verify(streams).add(eq(STREAM), ArgumentMatchers.<Map<String, String>>argThat(fields ->
+                "web".equals(fields.get("header:X-Client"))
+                        && fields.keySet().stream().noneMatch(name -> name.equalsIgnoreCase("header:Authorization")
+                        || name.equalsIgnoreCase("header:Cookie")
+                        || name.equalsIgnoreCase("header:" + RouteForwarder.PRINCIPAL_HEADER))));
+    }
+
+    @Test
+    void sendsQueuedWritesAsThePrincipalTheyWereVerifiedAs() {
+        queued(StreamRecords.newRecord()
+                .in(STREAM)
+                .withId(RecordId.of("1-0"))
+                .ofMap(Map.of("route", "user-song", "method", "POST", "path", "/users/alice/songs/1", "principal", "alice",
+                        "header:X-Client", "web")));
+        List<HttpHeaders> sentHeaders = new CopyOnWriteArrayList<>();
+        when(routeForwarder.send(eq(route), eq(HttpMethod.POST), anyString(), any(), any(), any())).thenAnswer(invocation -> {
+            sentHeaders.add(invocation.getArgument(4));
+            return Mono.just(HttpStatus.NO_CONTENT);
+        });
+
+        assertThat(mutationQueue.drain(0).block()).isEqualTo(1);
+
+        assertThat(sentHeaders).singleElement().satisfies(headers -> {
+            assertThat(headers.getFirst(RouteForwarder.PRINCIPAL_HEADER)).isEqualTo("alice");
+            assertThat(headers.getFirst("X-Client")).isEqualTo("web");
+        });
+    }
+
+    @SafeVarargs
+    private void queued(MapRecord<String, String, String>... records) {
+        // nothing left unacknowledged from before, so the new writes are read next
+        when(anyRead(streams)).thenAnswer(invocation -> {
+            StreamOffset<String> offset = invocation.getArgument(2);
+            return offset.getOffset().equals(ReadOffset.lastConsumed()) ? Flux.just(records) : Flux.empty();
+        });
+    }
+
+    // RedisScript is generic, the matcher for it cannot be
+    @SuppressWarnings("unchecked")
+    private void leaseAnswers(Long first, Long... then) {
+        Flux<Long>[] later = Arrays.stream(then).map(Flux::just).toArray(Flux[]::new);
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList())).thenReturn(Flux.just(first), later);
+    }
+
+    // the offsets are generic varargs, matching any of them takes an unchecked array
+    @SuppressWarnings("unchecked")
+    private static Flux<MapRecord<String, String, String>> anyRead(ReactiveStreamOperations<String, String, String> streams) {
+        return streams.read(any(Consumer.class), any(StreamReadOptions.class), any(StreamOffset.class));
+    }
+
+    private void upstreamAnswers(Function<String, HttpStatusCode> answer) {
+        when(routeForwarder.send(eq(route), eq(HttpMethod.POST), anyString(), any(), any(), any())).thenAnswer(invocation -> {
+            String path = invocation.getArgument(2);
+            sent.add(path);
+            return Mono.just(answer.apply(path));
+        });
+    }
+
+    private static MapRecord<String, String, String> write(String id, String principal, String path) {
+        return StreamRecords.newRecord()
+                .in(STREAM)
+                .withId(RecordId.of(id))
+                .ofMap(Map.of("route", "user-song", "method", "POST", "path", path, "principal", principal,
+                        "header:Authorization", "Bearer " + principal));
+    }
+}
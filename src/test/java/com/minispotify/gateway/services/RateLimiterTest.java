@@ -0,0 +1,94 @@
+package com.minispotify.gateway.services;
+
+import com.minispotify.gateway.config.RateLimitProperties;
+import com.minispotify.gateway.config.RouteProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RateLimiterTest {
+
+    private final ReactiveStringRedisTemplate redisTemplate = mock(ReactiveStringRedisTemplate.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void handsOutABatchOfTokensLocallyBeforeAskingRedisAgain() {
+        redisAnswers(List.of(10L, 0L));
+        RateLimiter rateLimiter = new RateLimiter(redisTemplate, new RateLimitProperties(), new RouteProperties(), meterRegistry);
+
+        for (int i = 0; i < 25; i++) {
+            assertThat(rateLimiter.acquire("songs", "alice").block().allowed()).isTrue();
+        }
+
+        verify(redisTemplate, times(3)).execute(any(RedisScript.class), eq(List.of("gateway:rate-limit:songs:alice")), anyList());
+    }
+
+    @Test
+    void turnsAPrincipalAwayLocallyUntilItsNextTokenIsDue() {
+        redisAnswers(List.of(0L, 1500L));
+        RateLimiter rateLimiter = new RateLimiter(redisTemplate, new RateLimitProperties(), new RouteProperties(), meterRegistry);
+
+        RateLimiter.Decision first = rateLimiter.acquire("songs", "alice").block();
+        RateLimiter.Decision second = rateLimiter.acquire("songs", "alice").block();
+
+        assertThat(first.allowed()).isFalse();
+        assertThat(first.retryAfter()).isEqualTo(Duration.ofMillis(1500));
+        assertThat(second.allowed()).isFalse();
+        assertThat(second.retryAfter()).isPositive().isLessThanOrEqualTo(Duration.ofMillis(1500));
+        verify(redisTemplate, times(1)).execute(any(RedisScript.class), anyList(), anyList());
+        assertThat(meterRegistry.get("gateway.rate-limit.rejections").tag("route", "songs").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void usesTheRoutesOwnLimitAndLetsRequestsThroughWhenRedisIsDown() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList()))
+                .thenReturn(Flux.error(new RedisConnectionFailureException("down")));
+        RouteProperties routes = new RouteProperties();
+        RouteProperties.Route login = new RouteProperties.Route();
+        login.setId("login");
+        login.setRateLimit(new RateLimitProperties.Limit());
+        login.getRateLimit().setCapacity(3);
+        routes.getRoutes().add(login);
+        RateLimiter rateLimiter = new RateLimiter(redisTemplate, new RateLimitProperties(), routes, meterRegistry);
+
+        for (int i = 0; i < 6; i++) {
+            assertThat(rateLimiter.acquire("login", "10.0.0.1").block().allowed()).isTrue();
+        }
+
+        // the batch is capped by the route's capacity of 3
+        verify(redisTemplate, times(2)).execute(any(RedisScript.class), anyList(), eq(List.of("3", "50.0", "3")));
+        assertThat(meterRegistry.get("gateway.rate-limit.redis.calls").tag("outcome", "failed").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void refusesALimitThatNeverRefills() {
+        RateLimitProperties properties = new RateLimitProperties();
+        properties.getDefaultLimit().setRefillPerSecond(0);
+
+        assertThatThrownBy(() -> new RateLimiter(redisTemplate, properties, new RouteProperties(), meterRegistry))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("refill-per-second");
+    }
+
+    @SuppressWarnings("unchecked")
+    private void redisAnswers(List<Long> answer) {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList()))
+                .thenAnswer(invocation -> Flux.just(answer));
+    }
+}
@@ -0,0 +1,66 @@
+package com.minispotify.gateway.services;
+
+import com.minispotify.gateway.config.CoalescingProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RequestCoalescerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicInteger upstreamCalls = new AtomicInteger();
+
+    @Test
+    void collapsesConcurrentCallsForTheSameKey() {
+        RequestCoalescer coalescer = new RequestCoalescer(new CoalescingProperties(), meterRegistry);
+
+        List<BufferedResponse> responses = Flux.range(0, 100)
+                .flatMap(i -> coalescer.execute("GET /playlists/1", () -> upstream(Duration.ofMillis(200))), 100)
+                .collectList()
+                .block();
+
+        assertThat(responses).hasSize(100).allMatch(response -> response.status() == HttpStatus.OK);
+        assertThat(upstreamCalls).hasValue(1);
+        assertThat(meterRegistry.get("gateway.coalescing.requests").tag("role", "follower").counter().count()).isEqualTo(99);
+    }
+
+    @Test
+    void startsANewCallOnceTheSharedOneCompleted() {
+        RequestCoalescer coalescer = new RequestCoalescer(new CoalescingProperties(), meterRegistry);
+
+        coalescer.execute("GET /playlists/1", () -> upstream(Duration.ZERO)).block();
+        coalescer.execute("GET /playlists/1", () -> upstream(Duration.ZERO)).block();
+
+        assertThat(upstreamCalls).hasValue(2);
+    }
+
+    @Test
+    void boundsHowLongFollowersWait() {
+        CoalescingProperties properties = new CoalescingProperties();
+        properties.setMaxWait(Duration.ofMillis(50));
+        RequestCoalescer coalescer = new RequestCoalescer(properties, meterRegistry);
+
+        coalescer.execute("GET /playlists/1", () -> upstream(Duration.ofSeconds(1))).subscribe();
+
+        assertThatThrownBy(() -> coalescer.execute("GET /playlists/1", () -> upstream(Duration.ZERO)).block())
+                .hasCauseInstanceOf(TimeoutException.class);
+        assertThat(upstreamCalls).hasValue(1);
+    }
+
+    private Mono<BufferedResponse> upstream(Duration latency) {
+        return Mono.delay(latency)
+                .doOnSubscribe(subscription -> upstreamCalls.incrementAndGet())
+                .map(tick -> new BufferedResponse(HttpStatus.OK, new HttpHeaders(), new byte[0]));
+    }
+}
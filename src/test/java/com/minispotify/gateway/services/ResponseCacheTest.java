@@ -0,0 +1,177 @@
+package com.minispotify.gateway.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.minispotify.gateway.config.ResponseCacheProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.ReactiveSetOperations;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ReactiveValueOperations;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ResponseCacheTest {
+
+    private final List<HttpHeaders> upstreamRequests = new ArrayList<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ReactiveValueOperations<String, String> values;
+    private ResponseCache cache;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        // a redis that never has anything stored, so every hit has to come from the local tier
+        ReactiveStringRedisTemplate redisTemplate = mock(ReactiveStringRedisTemplate.class);
+        values = mock(ReactiveValueOperations.class);
+        ReactiveSetOperations<String, String> sets = mock(ReactiveSetOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(values);
+        when(redisTemplate.opsForSet()).thenReturn(sets);
+        when(values.multiGet(anyList())).thenReturn(Mono.just(Arrays.asList(null, null)));
+        when(values.increment(anyString())).thenReturn(Mono.just(1L));
+        when(values.set(anyString(), anyString(), any(Duration.class))).thenReturn(Mono.just(true));
+        when(sets.add(anyString(), any(String[].class))).thenReturn(Mono.just(1L));
+        when(sets.members(anyString())).thenReturn(Flux.empty());
+        when(redisTemplate.expire(anyString(), any(Duration.class))).thenReturn(Mono.just(true));
+        when(redisTemplate.delete(any(String[].class))).thenReturn(Mono.just(1L));
+        when(redisTemplate.convertAndSend(anyString(), anyString())).thenReturn(Mono.just(1L));
+
+        cache = new ResponseCache(redisTemplate, mock(RedisSubscriptions.class), objectMapper,
+                new ResponseCacheProperties(), new SimpleMeterRegistry());
+    }
+
+    @Test
+    void servesRepeatedReadsFromTheLocalTier() {
+        RouteTable.CachePolicy policy = new RouteTable.CachePolicy(Duration.ofMinutes(1), "songs");
+
+        assertThat(cache.get("/songs/1", policy, this::upstream).block().outcome()).isEqualTo("MISS");
+        ResponseCache.Lookup second = cache.get("/songs/1", policy, this::upstream).block();
+
+        assertThat(second.outcome()).isEqualTo("HIT");
+        assertThat(new String(second.response().body(), StandardCharsets.UTF_8)).isEqualTo("{\"id\":1}");
+        assertThat(upstreamRequests).hasSize(1);
+    }
+
+    @Test
+    void revalidatesStaleEntriesWithTheUpstreamEtag() {
+        RouteTable.CachePolicy alwaysStale = new RouteTable.CachePolicy(Duration.ZERO, "songs");
+
+        cache.get("/songs/1", alwaysStale, this::upstream).block();
+        ResponseCache.Lookup revalidated = cache.get("/songs/1", alwaysStale, this::upstream).block();
+
+        assertThat(upstreamRequests.get(1).getIfNoneMatch()).containsExactly("\"v1\"");
+        assertThat(revalidated.outcome()).isEqualTo("REVALIDATED");
+        assertThat(new String(revalidated.response().body(), StandardCharsets.UTF_8)).isEqualTo("{\"id\":1}");
+    }
+
+    @Test
+    void evictingARegionForcesTheNextReadUpstream() {
+        RouteTable.CachePolicy policy = new RouteTable.CachePolicy(Duration.ofMinutes(1), "songs");
+
+        cache.get("/songs/1", policy, this::upstream).block();
+        cache.evictRegion("songs").block();
+
+        assertThat(cache.get("/songs/1", policy, this::upstream).block().outcome()).isEqualTo("MISS");
+        assertThat(upstreamRequests).hasSize(2);
+    }
+
+    @Test
+    void takesTheHeadersOfA304IntoTheRevalidatedEntry() {
+        RouteTable.CachePolicy alwaysStale = new RouteTable.CachePolicy(Duration.ZERO, "songs");
+        HttpHeaders notModified = new HttpHeaders();
+        notModified.setCacheControl("max-age=120");
+        notModified.setETag("\"v2\"");
+
+        cache.get("/songs/1", alwaysStale, this::upstream).block();
+        ResponseCache.Lookup revalidated = cache.get("/songs/1", alwaysStale, conditional ->
+                Mono.just(new BufferedResponse(HttpStatus.NOT_MODIFIED, notModified, new byte[0]))).block();
+
+        assertThat(revalidated.response().headers()).containsEntry(HttpHeaders.CACHE_CONTROL, List.of("max-age=120"));
+        assertThat(revalidated.response().upstreamEtag()).isEqualTo("\"v2\"");
+        assertThat(revalidated.response().etag()).isEqualTo("\"v2\"");
+    }
+
+    @Test
+    void answersAMissWithoutWaitingForTheSharedTier() {
+        RouteTable.CachePolicy policy = new RouteTable.CachePolicy(Duration.ofMinutes(1), "songs");
+        Sinks.One<Boolean> slowRedis = Sinks.one();
+        when(values.set(anyString(), anyString(), any(Duration.class))).thenReturn(slowRedis.asMono());
+
+        assertThat(cache.get("/songs/1", policy, this::upstream).block(Duration.ofSeconds(1)).outcome()).isEqualTo("MISS");
+        assertThat(cache.get("/songs/1", policy, this::upstream).block(Duration.ofSeconds(1)).outcome()).isEqualTo("HIT");
+    }
+
+    @Test
+    void dropsAResponseFetchedBeforeItsRegionWasInvalidated() {
+        RouteTable.CachePolicy policy = new RouteTable.CachePolicy(Duration.ofMinutes(1), "songs");
+        Sinks.One<BufferedResponse> slowUpstream = Sinks.one();
+
+        Mono<ResponseCache.Lookup> inFlight = cache.get("/songs/1", policy, conditional -> slowUpstream.asMono()).cache();
+        inFlight.subscribe();
+        cache.evictRegion("songs").block();
+        slowUpstream.tryEmitValue(new BufferedResponse(HttpStatus.OK, new HttpHeaders(), "{\"id\":0}".getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(inFlight.block().outcome()).isEqualTo("MISS");
+        assertThat(cache.get("/songs/1", policy, this::upstream).block().outcome()).isEqualTo("MISS");
+        assertThat(upstreamRequests).hasSize(1);
+    }
+
+    @Test
+    void ignoresSharedEntriesOfAnOlderRegionGeneration() throws Exception {
+        RouteTable.CachePolicy policy = new RouteTable.CachePolicy(Duration.ofMinutes(1), "songs");
+        BufferedResponse before = new BufferedResponse(HttpStatus.OK, new HttpHeaders(), "{\"id\":0}".getBytes(StandardCharsets.UTF_8));
+        CachedResponse old = CachedResponse.of(before, Duration.ofMinutes(1), System.currentTimeMillis(), 3);
+        when(values.multiGet(anyList())).thenReturn(Mono.just(Arrays.asList(objectMapper.writeValueAsString(old), "4")));
+
+        assertThat(cache.get("/songs/1", policy, this::upstream).block().outcome()).isEqualTo("MISS");
+        assertThat(upstreamRequests).hasSize(1);
+    }
+
+    @Test
+    void doesNotKeepResponsesThatVaryByOtherRequestHeaders() {
+        RouteTable.CachePolicy policy = new RouteTable.CachePolicy(Duration.ofMinutes(1), "songs");
+        HttpHeaders varies = new HttpHeaders();
+        varies.setVary(List.of(HttpHeaders.ACCEPT_ENCODING, HttpHeaders.AUTHORIZATION));
+        BufferedResponse perUser = new BufferedResponse(HttpStatus.OK, varies, "{}".getBytes(StandardCharsets.UTF_8));
+
+        cache.get("/songs/3", policy, conditional -> Mono.just(perUser)).block();
+
+        assertThat(cache.get("/songs/3", policy, this::upstream).block().outcome()).isEqualTo("MISS");
+    }
+
+    @Test
+    void doesNotKeepErrorResponses() {
+        RouteTable.CachePolicy policy = new RouteTable.CachePolicy(Duration.ofMinutes(1), "songs");
+        BufferedResponse notFound = new BufferedResponse(HttpStatus.NOT_FOUND, new HttpHeaders(), new byte[0]);
+
+        cache.get("/songs/2", policy, conditional -> Mono.just(notFound)).block();
+
+        assertThat(cache.get("/songs/2", policy, this::upstream).block().outcome()).isEqualTo("MISS");
+    }
+
+    private Mono<BufferedResponse> upstream(HttpHeaders conditional) {
+        upstreamRequests.add(conditional);
+        if ("\"v1\"".equals(conditional.getFirst(HttpHeaders.IF_NONE_MATCH))) {
+            return Mono.just(new BufferedResponse(HttpStatus.NOT_MODIFIED, new HttpHeaders(), new byte[0]));
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag("\"v1\"");
+        return Mono.just(new BufferedResponse(HttpStatus.OK, headers, "{\"id\":1}".getBytes(StandardCharsets.UTF_8)));
+    }
+}
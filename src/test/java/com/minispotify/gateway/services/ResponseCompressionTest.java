@@ -0,0 +1,122 @@
+package com.minispotify.gateway.services;
+
+import com.minispotify.gateway.config.CompressionProperties;
+import com.minispotify.gateway.config.RouteProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.util.pattern.PathPatternParser;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ResponseCompressionTest {
+
+    private static final String BODY = "{\"title\":\"song\"},".repeat(500);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CompressionProperties properties = new CompressionProperties();
+    private final ResponseCompression compression = new ResponseCompression(properties);
+    private final RouteMetrics.RouteMeters meters = meters();
+
+    @Test
+    void gzipsWhatTheJdkInflatesAndInflatesItBack() throws IOException {
+        byte[] gzipped = compression.gzip(BODY.getBytes(StandardCharsets.UTF_8), meters);
+
+        assertThat(gunzip(gzipped)).isEqualTo(BODY);
+        assertThat(new String(compression.gunzip(gzipped, meters), StandardCharsets.UTF_8)).isEqualTo(BODY);
+        assertThat(meterRegistry.get("gateway.compression.bytes").tag("side", "compressed").counter().count())
+                .isEqualTo(gzipped.length);
+        assertThat(meterRegistry.get("gateway.compression.time").tag("operation", "decompress").timer().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void gzipsAStreamedBodyBufferByBuffer() throws IOException {
+        DefaultDataBufferFactory bufferFactory = DefaultDataBufferFactory.sharedInstance;
+        Flux<DataBuffer> body = Flux.fromStream(List.of(BODY, BODY, "]").stream())
+                .map(chunk -> bufferFactory.wrap(chunk.getBytes(StandardCharsets.UTF_8)));
+
+        List<DataBuffer> gzipped = compression.gzip(body, bufferFactory, meters).collectList().block();
+
+        // every buffer is flushed as it comes, plus one for the trailer
+        assertThat(gzipped).hasSize(4);
+        DataBuffer joined = bufferFactory.join(gzipped);
+        byte[] bytes = new byte[joined.readableByteCount()];
+        joined.read(bytes);
+        DataBufferUtils.release(joined);
+        assertThat(gunzip(bytes)).isEqualTo(BODY + BODY + "]");
+        assertThat(meterRegistry.get("gateway.compression.responses").tag("outcome", "compressed").counter().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void refusesBodiesThatInflatePastTheLimit() {
+        properties.setMaxInflatedSize(DataSize.ofKilobytes(1));
+        ResponseCompression limited = new ResponseCompression(properties);
+        byte[] gzipped = limited.gzip(BODY.getBytes(StandardCharsets.UTF_8), meters);
+
+        assertThatThrownBy(() -> limited.gunzip(gzipped, meters)).isInstanceOf(ZipException.class);
+        assertThatThrownBy(() -> limited.gunzip("not gzip at all, really".getBytes(), meters)).isInstanceOf(ZipException.class);
+    }
+
+    @Test
+    void compressesOnlyLargeEnoughUnencodedTextForClientsAskingForGzip() {
+        HttpHeaders json = new HttpHeaders();
+        json.setContentType(MediaType.parseMediaType("application/vnd.song+json;charset=UTF-8"));
+        HttpHeaders image = new HttpHeaders();
+        image.setContentType(MediaType.IMAGE_PNG);
+        HttpHeaders brotli = new HttpHeaders();
+        brotli.setContentType(MediaType.APPLICATION_JSON);
+        brotli.set(HttpHeaders.CONTENT_ENCODING, "br");
+
+        assertThat(compression.isCompressible(json, 4096)).isTrue();
+        assertThat(compression.isCompressible(json, -1)).isTrue();
+        assertThat(compression.isCompressible(json, 100)).isFalse();
+        assertThat(compression.isCompressible(image, 4096)).isFalse();
+        assertThat(compression.isCompressible(brotli, 4096)).isFalse();
+
+        assertThat(compression.acceptsGzip(acceptEncoding("gzip, deflate, br"))).isTrue();
+        assertThat(compression.acceptsGzip(acceptEncoding("br;q=1.0, *;q=0.1"))).isTrue();
+        assertThat(compression.acceptsGzip(acceptEncoding("*, gzip;q=0"))).isFalse();
+        assertThat(compression.acceptsGzip(acceptEncoding("identity"))).isFalse();
+        assertThat(compression.acceptsGzip(new HttpHeaders())).isFalse();
+    }
+
+    private RouteMetrics.RouteMeters meters() {
+        RouteTable.Route route = new RouteTable.Route("songs", Set.of(HttpMethod.GET), PathPatternParser.defaultInstance.parse("/songs"),
+                "song", null, true, null, RouteProperties.Coalescing.NONE, false);
+        RouteTable routeTable = mock(RouteTable.class);
+        when(routeTable.routes()).thenReturn(List.of(route));
+        return new RouteMetrics(routeTable, meterRegistry).meters(route);
+    }
+
+    private static HttpHeaders acceptEncoding(String value) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.ACCEPT_ENCODING, value);
+        return headers;
+    }
+
+    private static String gunzip(byte[] gzipped) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.minispotify.gateway.services;
+
+import com.minispotify.gateway.config.AuthProperties;
+import com.minispotify.gateway.config.TokenCacheProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.ReactiveSubscription;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ReactiveValueOperations;
+import org.springframework.data.redis.listener.Topic;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TokenVerificationServiceTest {
+
+    private final ReactiveStringRedisTemplate redisTemplate = mock(ReactiveStringRedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final ReactiveValueOperations<String, String> values = mock(ReactiveValueOperations.class);
+    private final RedisSubscriptions redisSubscriptions = mock(RedisSubscriptions.class);
+    private final Sinks.Many<ReactiveSubscription.Message<String, String>> notifications = Sinks.many().multicast().directBestEffort();
+    private final List<String> topics = new CopyOnWriteArrayList<>();
+    private final List<List<String>> mgets = new CopyOnWriteArrayList<>();
+    private final TokenVerificationService tokenVerificationService;
+
+    TokenVerificationServiceTest() {
+        TokenCacheProperties properties = new TokenCacheProperties();
+        properties.setKeyPrefix("token:");
+        when(redisTemplate.opsForValue()).thenReturn(values);
+        when(values.multiGet(anyList())).thenAnswer(invocation -> {
+            mgets.add(new ArrayList<>(invocation.getArgument(0)));
+            return Mono.just(List.of("alice"));
+        });
+        when(redisSubscriptions.channelMessages(any(), anyString())).thenAnswer(invocation -> {
+            List<Topic> subscribed = invocation.getArgument(0);
+            subscribed.forEach(topic -> topics.add(topic.getTopic()));
+            return notifications.asFlux();
+        });
+        tokenVerificationService = new TokenVerificationService(redisTemplate, properties, redisSubscriptions,
+                new AuthProperties(), mock(JwtTokenVerifier.class), new SimpleMeterRegistry());
+        tokenVerificationService.subscribeToInvalidations();
+    }
+
+    @Test
+    void watchesOnlyTheTokenKeysAndDropsATokenWhenItsKeyChanges() {
+        assertThat(topics).containsExactly("gateway:token-revocations", "__keyspace@*__:token:*");
+
+        assertThat(tokenVerificationService.verify("Bearer abc").block()).isEqualTo(Optional.of("alice"));
+        assertThat(tokenVerificationService.verify("Bearer abc").block()).isEqualTo(Optional.of("alice"));
+        assertThat(mgets).containsExactly(List.of("token:abc"));
+
+        notifications.tryEmitNext(new ReactiveSubscription.PatternMessage<>("__keyspace@*__:token:*", "__keyspace@0__:token:abc", "del"));
+
+        assertThat(tokenVerificationService.verify("Bearer abc").block()).isEqualTo(Optional.of("alice"));
+        assertThat(mgets).containsExactly(List.of("token:abc"), List.of("token:abc"));
+    }
+
+    @Test
+    void dropsATokenPublishedOnTheRevocationChannel() {
+        tokenVerificationService.verify("Bearer abc").block();
+
+        notifications.tryEmitNext(new ReactiveSubscription.ChannelMessage<>("gateway:token-revocations", "abc"));
+        tokenVerificationService.verify("Bearer abc").block();
+
+        assertThat(mgets).hasSize(2);
+    }
+}
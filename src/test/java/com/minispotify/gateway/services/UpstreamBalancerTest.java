@@ -0,0 +1,103 @@
+package com.minispotify.gateway.services;
+
+import com.minispotify.gateway.config.UpstreamProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UpstreamBalancerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final UpstreamProperties.Balancing balancing = new UpstreamProperties.Balancing();
+    private final UpstreamProperties.Hedging hedging = new UpstreamProperties.Hedging();
+
+    @Test
+    void prefersTheFasterInstanceUntilItIsBusier() {
+        UpstreamBalancer balancer = balancer("http://a", "http://b");
+        UpstreamBalancer.Instance slow = balancer.instances().get(0);
+        UpstreamBalancer.Instance fast = balancer.instances().get(1);
+        slow.succeeded(TimeUnit.MILLISECONDS.toNanos(40));
+        fast.succeeded(TimeUnit.MILLISECONDS.toNanos(10));
+
+        for (int i = 0; i < 20; i++) {
+            assertThat(balancer.choose(null)).isSameAs(fast);
+        }
+
+        // four calls waiting on the fast instance make it the slower choice
+        for (int i = 0; i < 4; i++) {
+            fast.acquired();
+        }
+        assertThat(balancer.choose(null)).isSameAs(slow);
+        assertThat(balancer.choose(slow)).isSameAs(fast);
+    }
+
+    @Test
+    void ejectsAnInstanceFailingInARowButNeverMoreThanTheAllowedShare() throws InterruptedException {
+        balancing.setConsecutiveFailures(2);
+        balancing.setEjectionTime(Duration.ofMillis(50));
+        UpstreamBalancer balancer = balancer("http://a", "http://b", "http://c");
+        UpstreamBalancer.Instance a = balancer.instances().get(0);
+        UpstreamBalancer.Instance b = balancer.instances().get(1);
+
+        a.failed(1);
+        a.failed(1);
+        b.failed(1);
+        b.failed(1);
+
+        // a third of the instances is all that fits into the default half
+        for (int i = 0; i < 20; i++) {
+            assertThat(balancer.choose(null)).isNotSameAs(a);
+        }
+        assertThat(meterRegistry.get("gateway.upstream.instance.ejections").tag("instance", "http://a").counter().count())
+                .isEqualTo(1);
+        assertThat(meterRegistry.get("gateway.upstream.instance.ejections").tag("instance", "http://b").counter().count())
+                .isZero();
+
+        Thread.sleep(60);
+        UpstreamBalancer.Instance c = balancer.instances().get(2);
+        assertThat(IntStream.range(0, 20).mapToObj(i -> balancer.choose(c))).contains(a);
+    }
+
+    @Test
+    void hedgesAfterTheRecentPercentileWithinTheBudget() {
+        hedging.setEnabled(true);
+        UpstreamBalancer balancer = balancer("http://a", "http://b");
+        UpstreamBalancer.Instance a = balancer.instances().get(0);
+        for (int i = 1; i <= 100; i++) {
+            a.succeeded(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        assertThat(balancer.hedgeDelay()).isEqualTo(Duration.ofMillis(95));
+
+        // the budget starts with ten hedges saved up, every request then adds a tenth of one
+        for (int i = 0; i < 10; i++) {
+            assertThat(balancer.tryHedge()).isTrue();
+        }
+        assertThat(balancer.tryHedge()).isFalse();
+        for (int i = 0; i < 10; i++) {
+            balancer.hedgeDelay();
+        }
+        assertThat(balancer.tryHedge()).isTrue();
+        assertThat(meterRegistry.get("gateway.upstream.hedges").tag("outcome", "sent").counter().count()).isEqualTo(11);
+    }
+
+    @Test
+    void doesNotHedgeASingleInstanceOrWithoutEnoughLatencies() {
+        hedging.setEnabled(true);
+        assertThat(balancer("http://a").hedgeDelay()).isNull();
+        assertThat(balancer("http://a", "http://b").hedgeDelay()).isNull();
+
+        hedging.setDelay(Duration.ofMillis(20));
+        assertThat(balancer("http://a", "http://b").hedgeDelay()).isEqualTo(Duration.ofMillis(20));
+    }
+
+    private UpstreamBalancer balancer(String... urls) {
+        return new UpstreamBalancer("song", List.of(urls), balancing, hedging, meterRegistry);
+    }
+}
@@ -0,0 +1,108 @@
+package com.minispotify.gateway.services;
+
+import com.minispotify.gateway.config.UpstreamProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UpstreamGuardsTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void opensTheCircuitOnUpstreamErrorsAndFailsFast() {
+        UpstreamProperties.Upstream upstream = new UpstreamProperties.Upstream();
+        upstream.getCircuitBreaker().setSlidingWindowSize(4);
+        upstream.getCircuitBreaker().setMinimumNumberOfCalls(4);
+        UpstreamGuard guard = guards(upstream).get("song");
+
+        for (int i = 0; i < 4; i++) {
+            StepVerifier.create(guard.call(call -> {
+                call.responded(HttpStatus.SERVICE_UNAVAILABLE);
+                return Mono.just("error page");
+            })).expectNext("error page").verifyComplete();
+        }
+
+        StepVerifier.create(guard.call(call -> Mono.just("never called")))
+                .expectError(UpstreamUnavailableException.class)
+                .verify();
+        assertThat(meterRegistry.get("gateway.upstream.rejections").tag("reason", "circuit-open").counter().count())
+                .isEqualTo(1);
+        assertThat(meterRegistry.get("gateway.upstream.circuit.transitions").tag("to", "open").counter().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void bulkheadRejectsCallsBeyondItsBudgetUntilOneFinishes() {
+        UpstreamProperties.Upstream upstream = new UpstreamProperties.Upstream();
+        upstream.getBulkhead().setMaxConcurrentCalls(1);
+        upstream.getConcurrencyLimit().setEnabled(false);
+        UpstreamGuard guard = guards(upstream).get("song");
+
+        Sinks.One<String> first = Sinks.one();
+        StepVerifier.create(guard.call(call -> first.asMono()))
+                .then(() -> StepVerifier.create(guard.call(call -> Mono.just("second")))
+                        .expectError(UpstreamUnavailableException.class)
+                        .verify())
+                .then(() -> first.tryEmitValue("first"))
+                .expectNext("first")
+                .verifyComplete();
+
+        StepVerifier.create(guard.call(call -> Mono.just("third"))).expectNext("third").verifyComplete();
+    }
+
+    @Test
+    void limitGrowsWhileUsedAndBacksOffOncePerSlowWindow() {
+        UpstreamProperties.ConcurrencyLimit properties = new UpstreamProperties.ConcurrencyLimit();
+        properties.setInitialLimit(16);
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(properties);
+
+        window(limit, TimeUnit.MILLISECONDS.toNanos(10), 10);
+        assertThat(limit.limit()).isEqualTo(20);
+
+        // far more than twice the long-term latency: the upstream is queueing, cut once for the whole window
+        window(limit, TimeUnit.MILLISECONDS.toNanos(50), 20);
+        assertThat(limit.limit()).isEqualTo(18);
+
+        for (int i = 0; i < 19; i++) {
+            limit.onSample(TimeUnit.MILLISECONDS.toNanos(10), false, 18);
+        }
+        assertThat(limit.limit()).isEqualTo(18);
+        limit.onSample(TimeUnit.MILLISECONDS.toNanos(10), true, 18);
+        assertThat(limit.limit()).isEqualTo(16);
+    }
+
+    @Test
+    void healthyUpstreamKeepsItsLimitAtSteadyConcurrency() {
+        UpstreamProperties.ConcurrencyLimit properties = new UpstreamProperties.ConcurrencyLimit();
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(properties);
+        Random random = new Random(42);
+
+        // 2 to 20 ms with the odd call stalling far beyond twice the fastest, 16 in flight under a limit of 50
+        for (int i = 0; i < 5_000; i++) {
+            long latencyMillis = random.nextInt(20) == 0 ? 80 : 2 + random.nextInt(19);
+            limit.onSample(TimeUnit.MILLISECONDS.toNanos(latencyMillis), false, 16);
+        }
+        assertThat(limit.limit()).isEqualTo(properties.getInitialLimit());
+    }
+
+    private static void window(AdaptiveConcurrencyLimit limit, long latencyNanos, int inFlight) {
+        for (int i = 0; i < 20; i++) {
+            limit.onSample(latencyNanos, false, inFlight);
+        }
+    }
+
+    private UpstreamGuards guards(UpstreamProperties.Upstream upstream) {
+        UpstreamProperties properties = new UpstreamProperties();
+        properties.getUpstreams().put("song", upstream);
+        return new UpstreamGuards(properties, meterRegistry);
+    }
+}